@@ -14,9 +14,14 @@ import java.net.URISyntaxException;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
 
 @Data
 public class BaseTemplate {
+    private static final Map<String, LinkedHashMap<String, LinkedHashSet<Vector2f>>> templateStructures = new ConcurrentHashMap<>();
+
     private final Vector2f center;
     private final Army army;
     private final String luaFile;
@@ -29,7 +34,22 @@ public class BaseTemplate {
         loadUnits();
     }
 
+    /**
+     * Copies the structures of the template, the lua file of every template is only parsed once per JVM
+     */
     protected void loadUnits() throws IOException {
+        LinkedHashMap<String, LinkedHashSet<Vector2f>> parsedStructures = templateStructures.get(luaFile);
+        if (parsedStructures == null) {
+            parsedStructures = parseUnits();
+            templateStructures.putIfAbsent(luaFile, parsedStructures);
+        }
+        parsedStructures.forEach((type, positions) -> structures.put(type, positions.stream()
+                .map(position -> new Vector2f(position.x, position.y))
+                .collect(Collectors.toCollection(LinkedHashSet::new))));
+    }
+
+    private LinkedHashMap<String, LinkedHashSet<Vector2f>> parseUnits() throws IOException {
+        LinkedHashMap<String, LinkedHashSet<Vector2f>> structures = new LinkedHashMap<>();
         LuaValue lua = LuaLoader.load(BaseTemplate.class.getResourceAsStream(luaFile));
         LuaTable units = lua.get("Units").checktable();
         LuaValue key = LuaValue.NIL;
@@ -45,6 +65,7 @@ public class BaseTemplate {
                 structures.put(type, new LinkedHashSet<>(Collections.singletonList(position)));
             }
         }
+        return structures;
     }
 
     public void addUnits(SCMap map) {
@@ -5,7 +5,10 @@ import map.FloatMask;
 import map.SymmetryHierarchy;
 import util.ImageUtils;
 
-import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Data
 public strictfp class Brushes {
@@ -14,14 +17,68 @@ public strictfp class Brushes {
             "hawaii1.png", "hawaii2.png", "island.png", "volcano2.png"};
     public static final String[] HILL_BRUSHES = {"hill1.png", "hill2.png", "noise1.png", "noise2.png"};
     private static final String CUSTOM_BRUSHES_DIR = "/images/brushes/";
+    private static final long SCALED_BRUSH_CACHE_CELLS = 8 * 1024 * 1024;
+    private static final Map<String, FloatMask> brushes = new ConcurrentHashMap<>();
+    private static final Map<String, FloatMask> scaledBrushes = new LinkedHashMap<>(16, .75f, true);
+    private static long scaledBrushCells;
 
+    /**
+     * Brush as a new mask, the image of every brush is only decoded once per JVM
+     */
     public static FloatMask loadBrush(String brushName, SymmetryHierarchy symmetryHierarchy) {
-        try {
-            BufferedImage image = ImageUtils.readImage(CUSTOM_BRUSHES_DIR.concat(brushName));
-            return new FloatMask(image, null, symmetryHierarchy);
-        } catch (Exception e) {
-            e.printStackTrace();
-            throw new RuntimeException("Could not load brush");
+        return new FloatMask(getBrush(brushName, false), null, symmetryHierarchy);
+    }
+
+    /**
+     * Brush shrunk or enlarged to size the way {@link FloatMask#shrink} does, normalized brushes are scaled to a
+     * maximum of 1 first. The mask is shared by every caller asking for the same brush, size and symmetries, so it
+     * must only be read, the amplitude of a stamp is applied while adding it. The most recently used sizes of all
+     * brushes are kept, up to a total of SCALED_BRUSH_CACHE_CELLS cells.
+     */
+    public static FloatMask getScaledBrush(String brushName, boolean normalized, int size, SymmetryHierarchy symmetryHierarchy) {
+        // shrink applies the terrain symmetry, whose tables depend on the team symmetry
+        String key = String.format("%s,%b,%d,%s,%s", brushName, normalized, size, symmetryHierarchy.getTerrainSymmetry(), symmetryHierarchy.getTeamSymmetry());
+        synchronized (scaledBrushes) {
+            FloatMask scaledBrush = scaledBrushes.get(key);
+            if (scaledBrush != null) {
+                return scaledBrush;
+            }
+        }
+        FloatMask scaledBrush = new FloatMask(getBrush(brushName, normalized), null, symmetryHierarchy).shrink(size);
+        synchronized (scaledBrushes) {
+            FloatMask previous = scaledBrushes.putIfAbsent(key, scaledBrush);
+            if (previous != null) {
+                return previous;
+            }
+            scaledBrushCells += (long) size * size;
+            Iterator<FloatMask> leastRecentlyUsed = scaledBrushes.values().iterator();
+            while (scaledBrushCells > SCALED_BRUSH_CACHE_CELLS && scaledBrushes.size() > 1) {
+                FloatMask evicted = leastRecentlyUsed.next();
+                scaledBrushCells -= (long) evicted.getSize() * evicted.getSize();
+                leastRecentlyUsed.remove();
+            }
+        }
+        return scaledBrush;
+    }
+
+    /**
+     * Decoded brush at its full resolution, shared and only read
+     */
+    private static FloatMask getBrush(String brushName, boolean normalized) {
+        if (normalized) {
+            FloatMask brush = getBrush(brushName, false);
+            return brushes.computeIfAbsent(brushName + ",normalized", key -> {
+                FloatMask normalizedBrush = new FloatMask(brush, null);
+                return normalizedBrush.multiply(1 / normalizedBrush.getMax());
+            });
         }
+        return brushes.computeIfAbsent(brushName, key -> {
+            try {
+                return new FloatMask(ImageUtils.readImage(CUSTOM_BRUSHES_DIR.concat(brushName)), null, null);
+            } catch (Exception e) {
+                e.printStackTrace();
+                throw new RuntimeException("Could not load brush");
+            }
+        });
     }
 }
@@ -18,7 +18,7 @@ public strictfp class BiomeExporter {
     public static String filename;
     private static DataOutputStream out;
 
-    public static void exportBiome(Path envDir, Path folderPath, String biomeName, Biome biome) throws IOException {
+    public static synchronized void exportBiome(Path envDir, Path folderPath, String biomeName, Biome biome) throws IOException {
         Files.createDirectories(folderPath.resolve(biomeName));
 
         filename = folderPath.resolve(biomeName).resolve("Light.scmlighting").toString();
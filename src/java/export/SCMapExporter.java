@@ -25,7 +25,7 @@ public strictfp class SCMapExporter {
 
     private static DataOutputStream out;
 
-    public static void exportSCMAP(Path folderPath, String mapname, SCMap map) throws IOException {
+    public static synchronized void exportSCMAP(Path folderPath, String mapname, SCMap map) throws IOException {
         file = folderPath.resolve(mapname + ".scmap").toFile();
         boolean status = file.createNewFile();
         out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
@@ -307,11 +307,7 @@ public strictfp class SCMapExporter {
         final String fileFormat = "png";
         File previewFile = folderPath.resolve(mapname + "_preview." + fileFormat).toFile();
         RenderedImage renderedImage = PreviewGenerator.addMarkers(map.getPreview(), map);
-        try {
-            ImageIO.write(renderedImage, fileFormat, previewFile);
-        } catch (IOException e) {
-            System.out.print("Could not write the preview image\n" + e.toString());
-        }
+        ImageIO.write(renderedImage, fileFormat, previewFile);
     }
 
     private static void writeFloat(float f) throws IOException {
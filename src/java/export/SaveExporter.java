@@ -11,7 +11,7 @@ public strictfp class SaveExporter {
     public static File file;
     private static DataOutputStream out;
 
-    public static void exportSave(Path folderPath, String mapname, SCMap map) throws IOException {
+    public static synchronized void exportSave(Path folderPath, String mapname, SCMap map) throws IOException {
         file = folderPath.resolve(mapname + "_save.lua").toFile();
         boolean status = file.createNewFile();
         out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
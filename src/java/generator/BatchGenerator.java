@@ -0,0 +1,150 @@
+package generator;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Generates many maps in one JVM, so they share its warm JIT and the loaded biomes, brushes and base templates.
+ * Every map gets its own {@link MapGenerator} and pipeline context, at most threadCount of them generate at a time.
+ * <p>
+ * The maps are either a range of seeds with the same options, or the lines of a batch file, each holding the
+ * arguments of one map. The options that set up the whole JVM, --threads, --serial, --pipeline-threads, --debug and
+ * --help, apply to every map of the batch, so they are only accepted as common arguments and not on the lines of a
+ * batch file. Every other option, like --cell-random, is a setting of the map's own generation.
+ */
+public strictfp class BatchGenerator {
+    private static final Set<String> BATCH_KEYS = Set.of("--seeds", "--batch-file", "--batch-threads");
+    static final Set<String> GLOBAL_KEYS = Set.of("--threads", "--serial", "--pipeline-threads", "--debug", "--help");
+
+    private final List<String[]> mapArguments;
+    private final int threadCount;
+
+    public BatchGenerator(List<String[]> mapArguments, int threadCount) {
+        this.mapArguments = mapArguments;
+        this.threadCount = threadCount;
+    }
+
+    public static boolean isBatch(String[] args) {
+        return Arrays.stream(args).anyMatch(arg -> arg.equals("--seeds") || arg.equals("--batch-file"));
+    }
+
+    /**
+     * Arguments of every map of the batch described by the command line
+     */
+    public static BatchGenerator fromArguments(String[] args) throws IOException {
+        List<String> commonArguments = new ArrayList<>();
+        String seeds = null;
+        Path batchFile = null;
+        int threadCount = 1;
+        for (int i = 0; i < args.length; i++) {
+            if (BATCH_KEYS.contains(args[i]) && i + 1 < args.length) {
+                switch (args[i]) {
+                    case "--seeds" -> seeds = args[++i];
+                    case "--batch-file" -> batchFile = Path.of(args[++i]);
+                    case "--batch-threads" -> threadCount = Integer.parseInt(args[++i]);
+                }
+            } else {
+                commonArguments.add(args[i]);
+            }
+        }
+
+        List<String[]> mapArguments = new ArrayList<>();
+        if (seeds != null) {
+            String[] bounds = seeds.split("\\.\\.");
+            long firstSeed = Long.parseLong(bounds[0]);
+            long lastSeed = bounds.length > 1 ? Long.parseLong(bounds[1]) : firstSeed;
+            for (long seed = firstSeed; seed <= lastSeed; seed++) {
+                List<String> arguments = new ArrayList<>(commonArguments);
+                arguments.addAll(List.of("--seed", String.valueOf(seed)));
+                mapArguments.add(arguments.toArray(new String[0]));
+            }
+        }
+        if (batchFile != null) {
+            for (String line : Files.readAllLines(batchFile)) {
+                if (line.isBlank() || line.startsWith("#")) {
+                    continue;
+                }
+                List<String> lineArguments = Arrays.asList(line.trim().split("\\s+"));
+                lineArguments.stream().filter(GLOBAL_KEYS::contains).findFirst().ifPresent(key -> {
+                    throw new IllegalArgumentException(String.format("%s applies to the whole batch, it has to be given on the command line: %s", key, line));
+                });
+                List<String> arguments = new ArrayList<>(commonArguments);
+                arguments.addAll(lineArguments);
+                mapArguments.add(arguments.toArray(new String[0]));
+            }
+        }
+        return new BatchGenerator(mapArguments, threadCount);
+    }
+
+    public void run() throws InterruptedException {
+        List<MemoryPoolMXBean> heapPools = ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP)
+                .collect(Collectors.toList());
+        heapPools.forEach(MemoryPoolMXBean::resetPeakUsage);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        AtomicInteger done = new AtomicInteger();
+        long startTime = System.nanoTime();
+        List<Future<Long>> futures = new ArrayList<>();
+        for (String[] arguments : mapArguments) {
+            futures.add(executor.submit(() -> {
+                long mapStartTime = System.nanoTime();
+                MapGenerator generator = new MapGenerator();
+                generator.interpretArguments(arguments);
+                generator.generate();
+                generator.save();
+                long latency = System.nanoTime() - mapStartTime;
+                System.out.printf("Batch: %d/%d done, %s in %d ms%n", done.incrementAndGet(), mapArguments.size(),
+                        generator.getMapName().replace('/', '^'), latency / 1000000);
+                return latency;
+            }));
+        }
+
+        List<Long> latencies = new ArrayList<>();
+        int failures = 0;
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                latencies.add(futures.get(i).get());
+            } catch (Exception e) {
+                failures++;
+                System.err.printf("Batch: map %s failed%n", String.join(" ", mapArguments.get(i)));
+                e.printStackTrace();
+            }
+        }
+        executor.shutdown();
+        long wallTime = System.nanoTime() - startTime;
+        long peakHeap = heapPools.stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum();
+
+        Collections.sort(latencies);
+        System.out.printf("Batch done: %d maps, %d failed, %d threads, wall %d s, %.1f maps/minute%n",
+                latencies.size(), failures, threadCount, wallTime / 1000000000, latencies.size() * 60e9 / wallTime);
+        System.out.printf("Latency: p50 %d ms, p95 %d ms, p99 %d ms, max %d ms%n",
+                getPercentile(latencies, 50), getPercentile(latencies, 95), getPercentile(latencies, 99), getPercentile(latencies, 100));
+        System.out.printf("Peak heap: %d MB%n", peakHeap / 1024 / 1024);
+    }
+
+    /**
+     * Nearest rank percentile of sorted nanosecond values, in milliseconds
+     */
+    private static long getPercentile(List<Long> sortedValues, int percentile) {
+        if (sortedValues.isEmpty()) {
+            return 0;
+        }
+        int rank = (int) StrictMath.ceil(percentile / 100d * sortedValues.size());
+        return sortedValues.get(StrictMath.max(rank, 1) - 1) / 1000000;
+    }
+}
@@ -0,0 +1,293 @@
+package generator;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Keeps the generator resident behind a local HTTP endpoint, so requests skip the JVM start and reuse the loaded
+ * biomes, brushes and base templates and the warm JIT.
+ * <p>
+ * A request is a POST to /generate whose body holds the options of one map, the way they are given on the command
+ * line, like "--map-name name" or "--seed 5 --spawn-count 4". Options given when starting the server are defaults for
+ * every request. The response is the path of the map folder, or the folder as a zip with ?format=zip. Requests with
+ * --preview-only are answered with the preview image itself.
+ * <p>
+ * At most threadCount maps generate at a time and at most queueSize requests wait for them, the server answers 503
+ * to requests beyond that. A request given ?deadline=seconds is answered 504 once the deadline passes, and its map is
+ * cancelled: a queued one never starts and a running one stops at its next pipeline entry.
+ */
+public strictfp class GeneratorServer {
+    private static final Set<String> SERVER_KEYS = Set.of("--server", "--server-port", "--server-threads", "--queue-size");
+    private static final Set<String> REQUEST_REJECTED_KEYS = Set.of("--folder-path", "--seeds", "--batch-file", "--batch-threads");
+
+    private final List<String> defaultArguments;
+    private final Path folderPath;
+    private final ThreadPoolExecutor executor;
+    private final HttpServer server;
+    private final Map<String, Generation> generations = new HashMap<>();
+
+    public GeneratorServer(List<String> defaultArguments, int port, int threadCount, int queueSize) throws IOException {
+        this.defaultArguments = defaultArguments;
+        int folderIndex = defaultArguments.indexOf("--folder-path");
+        this.folderPath = Paths.get(folderIndex >= 0 && folderIndex + 1 < defaultArguments.size() ? defaultArguments.get(folderIndex + 1) : ".");
+        this.executor = new ThreadPoolExecutor(threadCount, threadCount, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize));
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/generate", this::handleGenerate);
+        server.setExecutor(Executors.newCachedThreadPool());
+    }
+
+    public static boolean isServer(String[] args) {
+        return Arrays.asList(args).contains("--server");
+    }
+
+    public static GeneratorServer fromArguments(String[] args) throws IOException {
+        List<String> defaultArguments = new ArrayList<>();
+        int port = 9161;
+        int threadCount = 1;
+        int queueSize = 16;
+        for (int i = 0; i < args.length; i++) {
+            if (SERVER_KEYS.contains(args[i])) {
+                switch (args[i]) {
+                    case "--server-port" -> port = Integer.parseInt(args[++i]);
+                    case "--server-threads" -> threadCount = Integer.parseInt(args[++i]);
+                    case "--queue-size" -> queueSize = Integer.parseInt(args[++i]);
+                }
+            } else {
+                defaultArguments.add(args[i]);
+            }
+        }
+        return new GeneratorServer(defaultArguments, port, threadCount, queueSize);
+    }
+
+    public void start() {
+        server.start();
+        System.out.printf("Generator server listening on %s%n", server.getAddress());
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handleGenerate(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("POST")) {
+                respond(exchange, 405, "Generation requests have to be POST");
+                return;
+            }
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            long deadlineMillis = -1;
+            if (query.containsKey("deadline")) {
+                deadlineMillis = parseDeadline(query.get("deadline"));
+                if (deadlineMillis < 0) {
+                    respond(exchange, 400, "Invalid deadline: " + query.get("deadline"));
+                    return;
+                }
+            }
+            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8).trim();
+            List<String> requestArguments = body.isEmpty() ? List.of() : Arrays.asList(body.split("\\s+"));
+            if (!requestArguments.isEmpty() && !requestArguments.get(0).startsWith("--")) {
+                // positional arguments name their own output folder and exit on a version mismatch
+                respond(exchange, 400, "Request options have to be given as --key value pairs");
+                return;
+            }
+            String rejectedKey = requestArguments.stream()
+                    .filter(argument -> BatchGenerator.GLOBAL_KEYS.contains(argument) || REQUEST_REJECTED_KEYS.contains(argument) || SERVER_KEYS.contains(argument))
+                    .findFirst().orElse(null);
+            if (rejectedKey != null) {
+                respond(exchange, 400, String.format("%s can not be given per request", rejectedKey));
+                return;
+            }
+
+            MapGenerator generator = new MapGenerator();
+            List<String> arguments = new ArrayList<>(defaultArguments);
+            arguments.addAll(requestArguments);
+            try {
+                generator.interpretArguments(arguments.toArray(new String[0]));
+            } catch (RuntimeException e) {
+                respond(exchange, 400, "Invalid options: " + e.getMessage());
+                return;
+            }
+
+            Generation generation;
+            try {
+                generation = join(generator);
+            } catch (RejectedExecutionException e) {
+                exchange.getResponseHeaders().add("Retry-After", "1");
+                respond(exchange, 503, "Generation queue is full");
+                return;
+            }
+
+            try {
+                if (deadlineMillis >= 0) {
+                    generation.future.get(deadlineMillis, TimeUnit.MILLISECONDS);
+                } else {
+                    generation.future.get();
+                }
+            } catch (TimeoutException | InterruptedException e) {
+                respond(exchange, 504, "Deadline passed before the map was generated");
+                return;
+            } catch (CancellationException e) {
+                respond(exchange, 504, "Generation was cancelled");
+                return;
+            } catch (ExecutionException e) {
+                e.getCause().printStackTrace();
+                respond(exchange, 500, "Generation failed: " + e.getCause());
+                return;
+            } finally {
+                leave(generation);
+            }
+
+            String mapName = generation.generator.getMapName();
+            Path mapFolder = folderPath.resolve(mapName).toAbsolutePath();
+            if (generation.generator.isPreviewOnly()) {
+                byte[] preview;
+                try {
+                    preview = Files.readAllBytes(folderPath.resolve(mapName + "_preview.png"));
+                } catch (IOException e) {
+                    respond(exchange, 500, "Preview could not be read: " + e);
+                    return;
+                }
+                exchange.getResponseHeaders().add("Content-Type", "image/png");
+                exchange.sendResponseHeaders(200, preview.length);
+                exchange.getResponseBody().write(preview);
+            } else if (!Files.isDirectory(mapFolder)) {
+                respond(exchange, 500, "Map folder is missing");
+            } else if ("zip".equals(query.get("format"))) {
+                exchange.getResponseHeaders().add("Content-Type", "application/zip");
+                exchange.getResponseHeaders().add("Content-Disposition", String.format("attachment; filename=\"%s.zip\"", mapName));
+                exchange.sendResponseHeaders(200, 0);
+                writeZip(mapFolder, exchange.getResponseBody());
+            } else {
+                respond(exchange, 200, mapFolder.toString());
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Waits for the generation of the generator's map, requests for a map that is already queued or generating share
+     * its generation instead of writing the same folder at the same time
+     */
+    private synchronized Generation join(MapGenerator generator) {
+        Generation generation = generations.get(getGenerationKey(generator));
+        if (generation == null) {
+            generation = new Generation(generator, executor.submit(() -> {
+                generator.generate();
+                generator.save();
+            }));
+            generations.put(getGenerationKey(generator), generation);
+        }
+        generation.waiters++;
+        return generation;
+    }
+
+    /**
+     * Stops waiting for a generation, the last one to leave an unfinished generation cancels it
+     */
+    private synchronized void leave(Generation generation) {
+        generation.waiters--;
+        if (generation.waiters == 0) {
+            generations.remove(getGenerationKey(generation.generator));
+            if (!generation.future.isDone()) {
+                generation.future.cancel(false);
+                generation.generator.cancel();
+                executor.purge();
+            }
+        }
+    }
+
+    /**
+     * Previews are saved apart from the map folder, so they do not share the generation of the full map
+     */
+    private static String getGenerationKey(MapGenerator generator) {
+        return generator.isPreviewOnly() ? generator.getMapName() + "_preview" : generator.getMapName();
+    }
+
+    private static class Generation {
+        private final MapGenerator generator;
+        private final Future<?> future;
+        private int waiters;
+
+        private Generation(MapGenerator generator, Future<?> future) {
+            this.generator = generator;
+            this.future = future;
+        }
+    }
+
+    /**
+     * Streams the map folder as a zip holding the folder itself, the way maps are distributed
+     */
+    private static void writeZip(Path mapFolder, OutputStream out) throws IOException {
+        ZipOutputStream zip = new ZipOutputStream(out);
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(mapFolder)) {
+            files = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+        for (Path file : files) {
+            zip.putNextEntry(new ZipEntry(mapFolder.getParent().relativize(file).toString().replace('\\', '/')));
+            Files.copy(file, zip);
+            zip.closeEntry();
+        }
+        zip.finish();
+    }
+
+    private static void respond(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] bytes = (message + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    /**
+     * Deadline in milliseconds from a number of seconds, -1 when it is not a valid one
+     */
+    private static long parseDeadline(String seconds) {
+        try {
+            double value = Double.parseDouble(seconds);
+            return value >= 0 ? (long) (value * 1000) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> parameters = new HashMap<>();
+        if (query != null) {
+            for (String parameter : query.split("&")) {
+                String[] keyValue = parameter.split("=", 2);
+                parameters.put(keyValue[0], keyValue.length > 1 ? keyValue[1] : "");
+            }
+        }
+        return parameters;
+    }
+}
@@ -13,20 +13,31 @@ import lombok.Setter;
 import map.*;
 import util.ArgumentParser;
 import util.FileUtils;
+import util.HashMode;
+import util.MaskCache;
+import util.ParallelUtils;
 import util.Pipeline;
+import util.PipelineContext;
+import util.PipelineScheduler;
+import util.PipelineStage;
 import util.Util;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Random;
-import java.util.concurrent.CompletableFuture;
 
 @Getter
 @Setter
@@ -67,6 +78,16 @@ public strictfp class MapGenerator {
     private int mexCount;
     private Symmetry symmetry;
     private Biome biome;
+    private boolean cellRandom;
+    private boolean verifyPipeline;
+    // null unless given, generations then only hash their masks in debug and verify runs
+    private HashMode hashMode;
+    private Path cacheDirectory;
+    private long cacheSize = 1024;
+    private MaskCache maskCache;
+    private boolean previewOnly;
+    private volatile PipelineContext pipelineContext;
+    private volatile boolean cancelled;
 
     private SCMap map;
     private int spawnSeparation;
@@ -128,7 +149,7 @@ public strictfp class MapGenerator {
     private boolean enemyCivilians;
     private float mexMultiplier = 1f;
 
-    public static void main(String[] args) throws IOException {
+    public static void main(String[] args) throws IOException, InterruptedException {
 
         Locale.setDefault(Locale.US);
         if (DEBUG) {
@@ -137,6 +158,16 @@ public strictfp class MapGenerator {
             Files.createDirectory(debugDir);
         }
 
+        if (GeneratorServer.isServer(args)) {
+            GeneratorServer.fromArguments(args).start();
+            return;
+        }
+
+        if (BatchGenerator.isBatch(args)) {
+            BatchGenerator.fromArguments(args).run();
+            return;
+        }
+
         MapGenerator generator = new MapGenerator();
 
         generator.interpretArguments(args);
@@ -210,6 +241,22 @@ public strictfp class MapGenerator {
                     "--symmetry arg         optional, set the symmetry for the generated map (Point, X, Z, XZ, ZX)\n" +
                     "--map-size arg		    optional, set the map size (5km = 256, 10km = 512, 20km = 1024)\n" +
                     "--biome arg		    optional, set the biome\n" +
+                    "--cell-random          optional, draw the random values of mask operations per cell so they can run in parallel, changes the generated map\n" +
+                    "--threads arg          optional, set the number of threads used inside a single mask operation\n" +
+                    "--serial               optional, run every mask operation on a single thread\n" +
+                    "--pipeline-threads arg optional, set the number of threads running mask operations at the same time\n" +
+                    "--verify-pipeline      optional, hash the masks after every single operation instead of once per fused chain\n" +
+                    "--hash-mode arg        optional, set how masks are hashed for the debug hash file (off, fast, md5), md5 matches the hashes of older versions, fast with --debug or --verify-pipeline and off otherwise by default, the hash file then only says so\n" +
+                    "--cache-dir arg        optional, keep the masks of every pipeline step in this folder and reuse them for maps sharing the same options\n" +
+                    "--cache-size arg       optional, set the maximum size of the mask cache in MB (default 1024)\n" +
+                    "--preview-only         optional, only generate the terrain, spawns and resources and save just the preview image next to the map folders\n" +
+                    "--seeds arg            optional, generate a batch of maps for the seeds from a to b given as a..b, with the other options\n" +
+                    "--batch-file arg       optional, generate a batch of maps, one per line of the file holding the options of the map\n" +
+                    "--batch-threads arg    optional, set the number of maps of a batch generated at the same time (default 1)\n" +
+                    "--server               optional, keep running and generate the maps requested by POST to http://localhost:port/generate\n" +
+                    "--server-port arg      optional, set the port of the server (default 9161)\n" +
+                    "--server-threads arg   optional, set the number of maps the server generates at the same time (default 1)\n" +
+                    "--queue-size arg       optional, set the number of requests the server queues before answering 503 (default 16)\n" +
                     "--debug                optional, turn on debugging options");
             System.exit(0);
         }
@@ -218,6 +265,38 @@ public strictfp class MapGenerator {
             DEBUG = true;
         }
 
+        if (arguments.containsKey("threads")) {
+            ParallelUtils.setParallelism(Integer.parseInt(arguments.get("threads")));
+        }
+
+        if (arguments.containsKey("serial")) {
+            ParallelUtils.setSerial(true);
+        }
+
+        if (arguments.containsKey("pipeline-threads")) {
+            PipelineScheduler.setDefaultThreadCount(Integer.parseInt(arguments.get("pipeline-threads")));
+        }
+
+        if (arguments.containsKey("hash-mode")) {
+            hashMode = HashMode.valueOf(arguments.get("hash-mode").toUpperCase());
+        }
+
+        if (arguments.containsKey("verify-pipeline")) {
+            verifyPipeline = true;
+        }
+
+        if (arguments.containsKey("cache-dir")) {
+            cacheDirectory = Paths.get(arguments.get("cache-dir"));
+        }
+
+        if (arguments.containsKey("cache-size")) {
+            cacheSize = Long.parseLong(arguments.get("cache-size"));
+        }
+
+        if (arguments.containsKey("preview-only")) {
+            previewOnly = true;
+        }
+
         if (arguments.containsKey("folder-path")) {
             pathToFolder = arguments.get("folder-path");
         }
@@ -284,6 +363,10 @@ public strictfp class MapGenerator {
             biome = Biomes.getBiomeByName(arguments.get("biome"));
         }
 
+        if (arguments.containsKey("cell-random")) {
+            cellRandom = true;
+        }
+
         generateMapName();
     }
 
@@ -380,6 +463,9 @@ public strictfp class MapGenerator {
         if (optionBytes.length > 9) {
             biome = Biomes.list.get(optionBytes[9]);
         }
+        if (optionBytes.length > 10) {
+            cellRandom = optionBytes[10] != 0;
+        }
 
     }
 
@@ -398,14 +484,31 @@ public strictfp class MapGenerator {
                 (byte) (mexCount),
                 (byte) (symmetry.ordinal()),
                 (byte) (Biomes.list.indexOf(biome))};
+        if (cellRandom) {
+            // only appended when set so names of sequentially drawn maps stay the same
+            optionArray = Arrays.copyOf(optionArray, optionArray.length + 1);
+            optionArray[optionArray.length - 1] = 1;
+        }
         String optionString = NAME_ENCODER.encode(optionArray);
         mapName = String.format(mapNameFormat, VERSION, seedString, optionString);
     }
 
+    /**
+     * Writes the map folder, or only the preview in preview mode. Throws an {@link UncheckedIOException} when a file
+     * can not be written, which can leave a partial map folder behind.
+     */
     public void save() {
         try {
             Path folderPath = Paths.get(pathToFolder);
 
+            if (previewOnly) {
+                long startTime = System.currentTimeMillis();
+                Files.createDirectories(folderPath);
+                SCMapExporter.exportPreview(folderPath, mapName, map);
+                System.out.printf("Preview export done: %d ms\n", System.currentTimeMillis() - startTime);
+                return;
+            }
+
             FileUtils.deleteRecursiveIfExists(folderPath.resolve(mapName));
 
             long startTime = System.currentTimeMillis();
@@ -420,13 +523,53 @@ public strictfp class MapGenerator {
             startTime = System.currentTimeMillis();
             Files.createDirectory(folderPath.resolve(mapName).resolve("debug"));
             SCMapExporter.exportSCMapString(folderPath, mapName, map);
-            Pipeline.toFile(folderPath.resolve(mapName).resolve("debug").resolve("pipelineMaskHashes.txt"));
+            pipelineContext.toFile(folderPath.resolve(mapName).resolve("debug").resolve("pipelineMaskHashes.txt"));
+            pipelineContext.getTrace().writeChromeTrace(folderPath.resolve(mapName).resolve("debug").resolve("pipelineTrace.json"));
             toFile(folderPath.resolve(mapName).resolve("debug").resolve("generatorParams.txt"));
             System.out.printf("Debug export done: %d ms\n", System.currentTimeMillis() - startTime);
 
         } catch (IOException e) {
-            e.printStackTrace();
             System.err.println("Error while saving the map.");
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private MaskCache openMaskCache() {
+        if (maskCache == null && cacheDirectory != null) {
+            try {
+                maskCache = MaskCache.open(cacheDirectory, cacheSize * 1024 * 1024);
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.err.println("Cannot open the mask cache, generating without it.");
+                cacheDirectory = null;
+            }
+        }
+        return maskCache;
+    }
+
+    /**
+     * Serialized state of the generator's random. Random options draw from it before the masks are seeded, so the
+     * seed alone does not tell which seeds the masks got.
+     */
+    private String getRandomState() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(random);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return Base64.getEncoder().encodeToString(bytes.toByteArray());
+    }
+
+    /**
+     * Stops a generation running on another thread at the next pipeline entry or stage, generate then throws a
+     * {@link java.util.concurrent.CompletionException} caused by a {@link java.util.concurrent.CancellationException}
+     */
+    public void cancel() {
+        cancelled = true;
+        PipelineContext context = pipelineContext;
+        if (context != null) {
+            context.cancel();
         }
     }
 
@@ -457,135 +600,81 @@ public strictfp class MapGenerator {
 
         spawnSeparation = StrictMath.max(random.nextInt(map.getSize() / 4 - map.getSize() / 32) + map.getSize() / 32, 24);
 
+        pipelineContext = new PipelineContext();
+        if (cancelled) {
+            pipelineContext.cancel();
+        }
+        pipelineContext.setVerifying(verifyPipeline);
+        pipelineContext.setHashMode(hashMode != null ? hashMode : DEBUG || verifyPipeline ? HashMode.FAST : HashMode.OFF);
+        pipelineContext.setCellRandom(cellRandom);
+        pipelineContext.setCache(openMaskCache());
+        Pipeline.bind(pipelineContext);
         BinaryMask[] spawnMasks = spawnGenerator.generateSpawns(spawnSeparation, symmetry, (plateauDensity - PLATEAU_DENSITY_MIN) / PLATEAU_DENSITY_RANGE);
         spawnLandMask = new ConcurrentBinaryMask(spawnMasks[0], random.nextLong(), "spawnsLand");
         spawnPlateauMask = new ConcurrentBinaryMask(spawnMasks[1], random.nextLong(), "spawnsPlateau");
 
         symmetryHierarchy = spawnLandMask.getSymmetryHierarchy();
+        // the biome only comes into play with the heightmap, terrain masks are shared by maps that differ in biome only
+        String terrainScope = String.format("%s %d %d %d %d %s %s %b %s", VERSION, seed, spawnCount, mapSize, mexCount, symmetry,
+                Arrays.toString(new float[]{landDensity, plateauDensity, mountainDensity, rampDensity, reclaimDensity}), cellRandom, getRandomState());
+        pipelineContext.setCacheScope(terrainScope);
         setupTerrainPipeline();
+        pipelineContext.setCacheScope(terrainScope + " " + biome.getName());
         setupHeightmapPipeline();
         setupTexturePipeline();
         setupPropPipeline();
         setupWreckPipeline();
         setupResourcePipeline();
+        Pipeline.unbind();
 
-        random = null;
-        Pipeline.start();
-
-        CompletableFuture<Void> aiMarkerFuture = CompletableFuture.runAsync(() -> {
-            Pipeline.await(passable, passableLand, passableWater);
-            long sTime = System.currentTimeMillis();
-            aiMarkerGenerator.generateAIMarkers(passable.getFinalMask(), passableLand.getFinalMask(), passableWater.getFinalMask(), 16, 18);
-            if (DEBUG) {
-                System.out.printf("Done: %4d ms, %s, generateAIMarkers\n",
-                        System.currentTimeMillis() - sTime,
-                        Util.getStackTraceLineInClass(MapGenerator.class));
-            }
+        PipelineStage resourcesStage = new PipelineStage("generateResources",
+                List.of(resourceMask, plateauResourceMask, waterResourceMask), List.of(), () -> {
+            mexGenerator.generateMexes(resourceMask.getFinalMask(), plateauResourceMask.getFinalMask(), waterResourceMask.getFinalMask());
+            hydroGenerator.generateHydros(resourceMask.getFinalMask().deflate(4));
         });
-
-
-        CompletableFuture<Void> textureFuture = CompletableFuture.runAsync(() -> {
-            Pipeline.await(groundTexture, accentGroundTexture, accentPlateauTexture, slopesTexture, accentSlopesTexture, rockBaseTexture, rockTexture, accentRockTexture);
-            long sTime = System.currentTimeMillis();
+        PipelineStage exclusionMasksStage = new PipelineStage("generateExclusionMasks",
+                List.of(impassable, ramps, unbuildable, allWreckMask, allBaseMask), List.of(resourcesStage), this::generateExclusionMasks);
+        PipelineStage aiMarkersStage = new PipelineStage("generateAIMarkers",
+                List.of(passable, passableLand, passableWater), List.of(), () ->
+                aiMarkerGenerator.generateAIMarkers(passable.getFinalMask(), passableLand.getFinalMask(), passableWater.getFinalMask(), 16, 18));
+        PipelineStage texturesStage = new PipelineStage("generateTextures",
+                List.of(groundTexture, accentGroundTexture, accentPlateauTexture, slopesTexture, accentSlopesTexture, rockBaseTexture, rockTexture, accentRockTexture), List.of(), () -> {
             map.setTextureMasksLow(groundTexture.getFinalMask(), accentGroundTexture.getFinalMask(), accentPlateauTexture.getFinalMask(), slopesTexture.getFinalMask());
             map.setTextureMasksHigh(accentSlopesTexture.getFinalMask(), rockBaseTexture.getFinalMask(), rockTexture.getFinalMask(), accentRockTexture.getFinalMask());
-            if (DEBUG) {
-                System.out.printf("Done: %4d ms, %s, generateTextures\n",
-                        System.currentTimeMillis() - sTime,
-                        Util.getStackTraceLineInClass(MapGenerator.class));
-            }
         });
-
-        CompletableFuture<Void> resourcesFuture = CompletableFuture.runAsync(() -> {
-            Pipeline.await(resourceMask, plateaus, land, ramps, impassable, unbuildable, allWreckMask, plateauResourceMask, waterResourceMask);
-            long sTime = System.currentTimeMillis();
-            mexGenerator.generateMexes(resourceMask.getFinalMask(), plateauResourceMask.getFinalMask(), waterResourceMask.getFinalMask());
-            hydroGenerator.generateHydros(resourceMask.getFinalMask().deflate(4));
-            generateExclusionMasks();
-            if (DEBUG) {
-                System.out.printf("Done: %4d ms, %s, generateResources\n",
-                        System.currentTimeMillis() - sTime,
-                        Util.getStackTraceLineInClass(MapGenerator.class));
-            }
-        });
-
-        resourcesFuture.join();
-
-        CompletableFuture<Void> wrecksFuture = CompletableFuture.runAsync(() -> {
-            Pipeline.await(t1LandWreckMask, t2LandWreckMask, t3LandWreckMask, t2NavyWreckMask, navyFactoryWreckMask);
-            long sTime = System.currentTimeMillis();
+        PipelineStage wrecksStage = new PipelineStage("generateWrecks",
+                List.of(t1LandWreckMask, t2LandWreckMask, t3LandWreckMask, t2NavyWreckMask, navyFactoryWreckMask), List.of(exclusionMasksStage), () -> {
             wreckGenerator.generateWrecks(t1LandWreckMask.getFinalMask().minus(noWrecks), WreckGenerator.T1_Land, 3f);
             wreckGenerator.generateWrecks(t2LandWreckMask.getFinalMask().minus(noWrecks), WreckGenerator.T2_Land, 30f);
             wreckGenerator.generateWrecks(t3LandWreckMask.getFinalMask().minus(noWrecks), WreckGenerator.T3_Land, 128f);
             wreckGenerator.generateWrecks(t2NavyWreckMask.getFinalMask().minus(noWrecks), WreckGenerator.T2_Navy, 128f);
             wreckGenerator.generateWrecks(navyFactoryWreckMask.getFinalMask().minus(noWrecks), WreckGenerator.Navy_Factory, 256f);
-            if (DEBUG) {
-                System.out.printf("Done: %4d ms, %s, generateWrecks\n",
-                        System.currentTimeMillis() - sTime,
-                        Util.getStackTraceLineInClass(MapGenerator.class));
-            }
         });
-
-        CompletableFuture<Void> propsFuture = CompletableFuture.runAsync(() -> {
-            Pipeline.await(treeMask, cliffRockMask, largeRockFieldMask, fieldStoneMask);
-            long sTime = System.currentTimeMillis();
+        PipelineStage propsStage = new PipelineStage("generateProps",
+                List.of(treeMask, cliffRockMask, largeRockFieldMask, smallRockFieldMask, fieldStoneMask), List.of(exclusionMasksStage), () -> {
             propGenerator.generateProps(treeMask.getFinalMask().minus(noProps), biome.getPropMaterials().getTreeGroups(), 3f);
             propGenerator.generateProps(cliffRockMask.getFinalMask().minus(noProps), biome.getPropMaterials().getRocks(), 1.5f);
             propGenerator.generateProps(largeRockFieldMask.getFinalMask().minus(noProps), biome.getPropMaterials().getRocks(), 1.5f);
             propGenerator.generateProps(smallRockFieldMask.getFinalMask().minus(noProps), biome.getPropMaterials().getRocks(), 1.5f);
             propGenerator.generateProps(fieldStoneMask.getFinalMask().minus(noProps), biome.getPropMaterials().getBoulders(), 30f);
-            if (DEBUG) {
-                System.out.printf("Done: %4d ms, %s, generateProps\n",
-                        System.currentTimeMillis() - sTime,
-                        Util.getStackTraceLineInClass(MapGenerator.class));
-            }
         });
-
-        CompletableFuture<Void> decalsFuture = CompletableFuture.runAsync(() -> {
-            Pipeline.await(intDecal, rockDecal);
-            long sTime = System.currentTimeMillis();
+        PipelineStage decalsStage = new PipelineStage("generateDecals",
+                List.of(intDecal, rockDecal), List.of(exclusionMasksStage), () -> {
             decalGenerator.generateDecals(intDecal.getFinalMask().minus(noDecals), DecalGenerator.INT, 96f, 64f);
             decalGenerator.generateDecals(rockDecal.getFinalMask().minus(noDecals), DecalGenerator.ROCKS, 8f, 16f);
-            if (DEBUG) {
-                System.out.printf("Done: %4d ms, %s, generateDecals\n",
-                        System.currentTimeMillis() - sTime,
-                        Util.getStackTraceLineInClass(MapGenerator.class));
-            }
         });
-
-        CompletableFuture<Void> baseFuture = CompletableFuture.runAsync(() -> {
-            Pipeline.await(baseMask);
-            long sTime = System.currentTimeMillis();
+        PipelineStage basesStage = new PipelineStage("generateBases",
+                List.of(baseMask, civReclaimMask), List.of(exclusionMasksStage), () -> {
             unitGenerator.generateBases(baseMask.getFinalMask().minus(noBases), UnitGenerator.MEDIUM_ENEMY, Army.ENEMY, 512f);
             unitGenerator.generateBases(civReclaimMask.getFinalMask().minus(noCivs), UnitGenerator.MEDIUM_RECLAIM, Army.CIVILIAN, 256f);
-            if (DEBUG) {
-                System.out.printf("Done: %4d ms, %s, generateBases\n",
-                        System.currentTimeMillis() - sTime,
-                        Util.getStackTraceLineInClass(MapGenerator.class));
-            }
         });
-
-        CompletableFuture<Void> heightMapFuture = CompletableFuture.runAsync(() -> {
-            Pipeline.await(heightmapBase);
-            long sTime = System.currentTimeMillis();
+        PipelineStage heightmapStage = new PipelineStage("setHeightmap",
+                List.of(heightmapBase), List.of(), () -> {
             map.setHeightmap(heightmapBase.getFinalMask());
             map.getHeightmap().getRaster().setPixel(0, 0, new int[]{0});
-            if (DEBUG) {
-                System.out.printf("Done: %4d ms, %s, setHeightmap\n",
-                        System.currentTimeMillis() - sTime,
-                        Util.getStackTraceLineInClass(MapGenerator.class));
-            }
         });
-
-        wrecksFuture.join();
-        propsFuture.join();
-        decalsFuture.join();
-        aiMarkerFuture.join();
-        heightMapFuture.join();
-        baseFuture.join();
-
-        CompletableFuture<Void> placementFuture = CompletableFuture.runAsync(() -> {
-            long sTime = System.currentTimeMillis();
+        PipelineStage placementsStage = new PipelineStage("setPlacements",
+                List.of(), List.of(resourcesStage, aiMarkersStage, wrecksStage, propsStage, decalsStage, basesStage, heightmapStage), () -> {
             spawnGenerator.setMarkerHeights();
             mexGenerator.setMarkerHeights();
             hydroGenerator.setMarkerHeights();
@@ -594,16 +683,19 @@ public strictfp class MapGenerator {
             decalGenerator.setDecalHeights();
             unitGenerator.setUnitHeights();
             aiMarkerGenerator.setMarkerHeights();
-            if (DEBUG) {
-                System.out.printf("Done: %4d ms, %s, setPlacements\n",
-                        System.currentTimeMillis() - sTime,
-                        Util.getStackTraceLineInClass(MapGenerator.class));
-            }
         });
+        if (previewOnly) {
+            // every mask is still created so the kept ones draw the seeds of the full map, placing the same resources
+            pipelineContext.setPruning(true);
+            List.of(resourcesStage, heightmapStage).forEach(pipelineContext::addStage);
+        } else {
+            List.of(resourcesStage, exclusionMasksStage, aiMarkersStage, texturesStage, wrecksStage, propsStage, decalsStage, basesStage, heightmapStage, placementsStage)
+                    .forEach(pipelineContext::addStage);
+        }
 
-        textureFuture.join();
-        placementFuture.join();
-        Pipeline.stop();
+        random = null;
+        pipelineContext.start();
+        pipelineContext.stop();
         long sTime = System.currentTimeMillis();
         PreviewGenerator.generate(map.getPreview(), map);
         if (DEBUG) {
@@ -613,6 +705,10 @@ public strictfp class MapGenerator {
         }
 
         System.out.printf("Map generation done: %d ms\n", System.currentTimeMillis() - startTime);
+        if (DEBUG) {
+            System.out.print(pipelineContext.getTrace().getSummary());
+            System.out.println(ScratchArena.getSummary());
+        }
 
         return map;
     }
@@ -3,28 +3,35 @@ package map;
 import generator.VisualDebugger;
 import lombok.Getter;
 import lombok.SneakyThrows;
+import util.FastHash;
+import util.ParallelUtils;
 import util.Util;
 import util.Vector2f;
 import util.Vector3f;
 
-import java.io.BufferedOutputStream;
-import java.io.DataOutputStream;
-import java.io.FileOutputStream;
+import java.io.*;
 import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntConsumer;
 
 @Getter
 public strictfp class BinaryMask extends Mask {
-    private final Random random;
-    private boolean[][] mask;
+    private static final int[] NEIGHBOUR_X = {0, -1, 0, 1};
+    private static final int[] NEIGHBOUR_Y = {1, 0, -1, 0};
+
+    private Random random;
+    private int size;
+    // bit-packed rows: row x occupies getWordsPerRow() longs, bit y of the row holds the value at (x, y),
+    // padding bits beyond size are always kept at zero
+    private long[] mask;
 
     public BinaryMask(int size, Long seed, SymmetryHierarchy symmetryHierarchy) {
-        this.mask = new boolean[size][size];
+        this.size = size;
+        this.mask = ScratchArena.borrowLongs(getWordCount(size));
         if (seed != null) {
             this.random = new Random(seed);
         } else {
@@ -35,7 +42,8 @@ public strictfp class BinaryMask extends Mask {
     }
 
     public BinaryMask(int size, Long seed, Symmetry symmetry) {
-        this.mask = new boolean[size][size];
+        this.size = size;
+        this.mask = ScratchArena.borrowLongs(getWordCount(size));
         this.random = new Random(seed);
         Symmetry spawnSymmetry;
         Symmetry teamSymmetry;
@@ -68,39 +76,109 @@ public strictfp class BinaryMask extends Mask {
     }
 
     public BinaryMask(BinaryMask mask, Long seed) {
-        this.mask = new boolean[mask.getSize()][mask.getSize()];
+        this.size = mask.getSize();
+        this.mask = ScratchArena.copyOf(mask.mask);
         this.symmetryHierarchy = mask.getSymmetryHierarchy();
         if (seed != null) {
             this.random = new Random(seed);
         } else {
             this.random = null;
         }
-        for (int x = 0; x < mask.getSize(); x++) {
-            for (int y = 0; y < mask.getSize(); y++) {
-                this.mask[x][y] = mask.get(x, y);
-            }
-        }
         VisualDebugger.visualizeMask(this);
     }
 
     public BinaryMask(FloatMask mask, float threshold, Long seed) {
-        this.mask = new boolean[mask.getSize()][mask.getSize()];
+        this.size = mask.getSize();
+        this.mask = ScratchArena.borrowLongs(getWordCount(size));
         this.symmetryHierarchy = mask.getSymmetryHierarchy();
         if (seed != null) {
             this.random = new Random(seed);
         } else {
             this.random = null;
         }
-        for (int x = 0; x < mask.getSize(); x++) {
-            for (int y = 0; y < mask.getSize(); y++) {
+        // every row owns its own words, so rows can be thresholded independently
+        ParallelUtils.forEachRow(size, x -> {
+            for (int y = 0; y < size; y++) {
                 set(x, y, mask.get(x, y) >= threshold);
             }
-        }
+        });
         VisualDebugger.visualizeMask(this);
     }
 
+    private BinaryMask(long[] words, int size, SymmetryHierarchy symmetryHierarchy, Long seed) {
+        this.size = size;
+        this.mask = words;
+        this.symmetryHierarchy = symmetryHierarchy;
+        if (seed != null) {
+            this.random = new Random(seed);
+        } else {
+            this.random = null;
+        }
+    }
+
     public int getSize() {
-        return mask[0].length;
+        return size;
+    }
+
+    private static int getWordsPerRow(int size) {
+        return (size + 63) >>> 6;
+    }
+
+    private static int getWordCount(int size) {
+        return getWordsPerRow(size) * size;
+    }
+
+    private static long getLastWordMask(int size) {
+        int usedBits = size & 63;
+        return usedBits == 0 ? -1L : (1L << usedBits) - 1;
+    }
+
+    private static boolean getBit(long[] words, int size, int x, int y) {
+        return (words[x * getWordsPerRow(size) + (y >>> 6)] & (1L << y)) != 0;
+    }
+
+    private static void setBit(long[] words, int size, int x, int y, boolean value) {
+        int index = x * getWordsPerRow(size) + (y >>> 6);
+        if (value) {
+            words[index] |= 1L << y;
+        } else {
+            words[index] &= ~(1L << y);
+        }
+    }
+
+    /**
+     * Replaces the storage with words, the previous words go back to the scratch arena
+     */
+    private void setMask(long[] words, int size) {
+        ScratchArena.release(this.mask);
+        this.mask = words;
+        this.size = size;
+    }
+
+    /**
+     * Read only view of the current values that shares their storage instead of copying it
+     */
+    BinaryMask getSharedView(Long seed) {
+        return new BinaryMask(mask, size, symmetryHierarchy, seed);
+    }
+
+    /**
+     * Moves this mask onto a private copy of its storage, leaving the old storage to the views sharing it
+     */
+    void unshare() {
+        this.mask = ScratchArena.copyOf(mask);
+    }
+
+    /**
+     * Hands the storage back to the scratch arena once no view or owner uses it anymore
+     */
+    void releaseStorage() {
+        ScratchArena.release(mask);
+        this.mask = null;
+    }
+
+    boolean isReleased() {
+        return mask == null;
     }
 
     public boolean get(Vector2f location) {
@@ -112,7 +190,7 @@ public strictfp class BinaryMask extends Mask {
     }
 
     public boolean get(int x, int y) {
-        return mask[x][y];
+        return getBit(mask, size, x, y);
     }
 
     public void set(Vector2f location, boolean value) {
@@ -124,7 +202,17 @@ public strictfp class BinaryMask extends Mask {
     }
 
     public void set(int x, int y, boolean value) {
-        mask[x][y] = value;
+        setBit(mask, size, x, y, value);
+    }
+
+    boolean isRowEmpty(int x) {
+        int wordsPerRow = getWordsPerRow(size);
+        for (int i = x * wordsPerRow; i < (x + 1) * wordsPerRow; i++) {
+            if (mask[i] != 0) {
+                return false;
+            }
+        }
+        return true;
     }
 
     public boolean isEdge(int x, int y) {
@@ -144,17 +232,25 @@ public strictfp class BinaryMask extends Mask {
     }
 
     public BinaryMask clear() {
-        for (int x = 0; x < getSize(); x++) {
-            for (int y = 0; y < getSize(); y++) {
-                set(x, y, false);
-            }
-        }
+        Arrays.fill(mask, 0L);
         applySymmetry();
         VisualDebugger.visualizeMask(this);
         return this;
     }
 
     public BinaryMask randomize(float density) {
+        if (CellRandom.isEnabled()) {
+            long key = random.nextLong();
+            Symmetry symmetry = symmetryHierarchy.getTerrainSymmetry();
+            forEachRowInBounds(symmetry, 0, x -> {
+                for (int y = getMinYBound(x, symmetry); y < getMaxYBound(x, symmetry); y++) {
+                    set(x, y, CellRandom.getFloat(key, x, y) < density);
+                }
+            });
+            applySymmetry();
+            VisualDebugger.visualizeMask(this);
+            return this;
+        }
         for (int x = getMinXBound(); x < getMaxXBound(); x++) {
             for (int y = getMinYBound(x); y < getMaxYBound(x); y++) {
                 set(x, y, random.nextFloat() < density);
@@ -170,6 +266,19 @@ public strictfp class BinaryMask extends Mask {
     }
 
     public BinaryMask flipValues(float density, Symmetry symmetry) {
+        if (CellRandom.isEnabled()) {
+            long key = random.nextLong();
+            forEachRowInBounds(symmetry, 0, x -> {
+                for (int y = getMinYBound(x, symmetry); y < getMaxYBound(x, symmetry); y++) {
+                    if (get(x, y)) {
+                        set(x, y, CellRandom.getFloat(key, x, y) < density);
+                    }
+                }
+            });
+            applySymmetry(symmetry);
+            VisualDebugger.visualizeMask(this);
+            return this;
+        }
         for (int x = getMinXBound(symmetry); x < getMaxXBound(symmetry); x++) {
             for (int y = getMinYBound(x, symmetry); y < getMaxYBound(x, symmetry); y++) {
                 if (get(x, y)) {
@@ -182,6 +291,16 @@ public strictfp class BinaryMask extends Mask {
         return this;
     }
 
+    /**
+     * Runs rowAction for every row between the x bounds of the symmetry widened by margin, rows outside the mask
+     * included, possibly in parallel so rows may only write their own cells
+     */
+    private void forEachRowInBounds(Symmetry symmetry, int margin, IntConsumer rowAction) {
+        int minX = getMinXBound(symmetry) - margin;
+        int maxX = getMaxXBound(symmetry) + margin;
+        ParallelUtils.forEachRow(maxX - minX, i -> rowAction.accept(minX + i));
+    }
+
     public BinaryMask randomWalk(int numWalkers, int numSteps) {
         for (int i = 0; i < numWalkers; i++) {
             int x = random.nextInt(getMaxXBound() - getMinXBound()) + getMinXBound();
@@ -230,9 +349,12 @@ public strictfp class BinaryMask extends Mask {
     }
 
     public BinaryMask invert() {
-        for (int x = 0; x < getSize(); x++) {
-            for (int y = 0; y < getSize(); y++) {
-                set(x, y, !get(x, y));
+        int wordsPerRow = getWordsPerRow(size);
+        long lastWordMask = getLastWordMask(size);
+        for (int i = 0; i < mask.length; i++) {
+            mask[i] = ~mask[i];
+            if (i % wordsPerRow == wordsPerRow - 1) {
+                mask[i] &= lastWordMask;
             }
         }
         VisualDebugger.visualizeMask(this);
@@ -240,24 +362,24 @@ public strictfp class BinaryMask extends Mask {
     }
 
     public BinaryMask enlarge(int size) {
-        boolean[][] largeMask = new boolean[size][size];
+        long[] largeMask = ScratchArena.borrowLongs(getWordCount(size));
         int smallX;
         int smallY;
         for (int x = 0; x < size; x++) {
             smallX = StrictMath.min(x / (size / getSize()), getSize() - 1);
             for (int y = 0; y < size; y++) {
                 smallY = StrictMath.min(y / (size / getSize()), getSize() - 1);
-                largeMask[x][y] = get(smallX, smallY);
+                setBit(largeMask, size, x, y, get(smallX, smallY));
             }
         }
-        mask = largeMask;
+        setMask(largeMask, size);
         VisualDebugger.visualizeMask(this);
         applySymmetry(symmetryHierarchy.getTeamSymmetry());
         return this;
     }
 
     public BinaryMask shrink(int size) {
-        boolean[][] smallMask = new boolean[size][size];
+        long[] smallMask = ScratchArena.borrowLongs(getWordCount(size));
         int largeX;
         int largeY;
         for (int x = 0; x < size; x++) {
@@ -268,70 +390,44 @@ public strictfp class BinaryMask extends Mask {
                 largeY = (y * getSize()) / size + (getSize() / size / 2);
                 if (largeY >= getSize())
                     largeY = getSize() - 1;
-                smallMask[x][y] = get(largeX, largeY);
+                setBit(smallMask, size, x, y, get(largeX, largeY));
             }
         }
-        mask = smallMask;
+        setMask(smallMask, size);
         VisualDebugger.visualizeMask(this);
         applySymmetry(symmetryHierarchy.getTeamSymmetry());
         return this;
     }
 
     public BinaryMask inflate(float radius) {
-        boolean[][] maskCopy = new boolean[getSize()][getSize()];
+        DistanceField distanceField = new DistanceField(this, true);
 
         float radius2 = (radius + 0.5f) * (radius + 0.5f);
-        for (int x = 0; x < getSize(); x++) {
-            for (int y = 0; y < getSize(); y++) {
-                if (isEdge(x, y) && get(x, y)) {
-                    for (int x2 = (int) (x - radius); x2 < x + radius + 1; x2++) {
-                        for (int y2 = (int) (y - radius); y2 < y + radius + 1; y2++) {
-                            if (inBounds(x2, y2) && (x - x2) * (x - x2) + (y - y2) * (y - y2) <= radius2) {
-                                maskCopy[x2][y2] = true;
-                            }
-                        }
-                    }
-                }
-            }
-        }
-
-        for (int x = 0; x < getSize(); x++) {
-            for (int y = 0; y < getSize(); y++) {
-                if (maskCopy[x][y]) {
+        for (int x = 0; x < size; x++) {
+            for (int y = 0; y < size; y++) {
+                if (distanceField.getSquaredDistance(x, y) <= radius2) {
                     set(x, y, true);
                 }
             }
         }
+        distanceField.release();
 
         VisualDebugger.visualizeMask(this);
         return this;
     }
 
     public BinaryMask deflate(float radius) {
-        boolean[][] maskCopy = new boolean[getSize()][getSize()];
+        DistanceField distanceField = new DistanceField(this, false);
 
         float radius2 = (radius + 0.5f) * (radius + 0.5f);
-        for (int x = 0; x < getSize(); x++) {
-            for (int y = 0; y < getSize(); y++) {
-                if (isEdge(x, y) && !get(x, y)) {
-                    for (int x2 = (int) (x - radius); x2 < x + radius + 1; x2++) {
-                        for (int y2 = (int) (y - radius); y2 < y + radius + 1; y2++) {
-                            if (inBounds(x2, y2) && (x - x2) * (x - x2) + (y - y2) * (y - y2) <= radius2) {
-                                maskCopy[x2][y2] = true;
-                            }
-                        }
-                    }
-                }
-            }
-        }
-
-        for (int x = 0; x < getSize(); x++) {
-            for (int y = 0; y < getSize(); y++) {
-                if (maskCopy[x][y]) {
+        for (int x = 0; x < size; x++) {
+            for (int y = 0; y < size; y++) {
+                if (distanceField.getSquaredDistance(x, y) <= radius2) {
                     set(x, y, false);
                 }
             }
         }
+        distanceField.release();
 
         VisualDebugger.visualizeMask(this);
         return this;
@@ -339,7 +435,7 @@ public strictfp class BinaryMask extends Mask {
 
     public BinaryMask cutCorners() {
         int size = getSize();
-        boolean[][] maskCopy = new boolean[size][size];
+        long[] maskCopy = ScratchArena.borrowLongs(mask.length);
         for (int x = 0; x < size; x++) {
             for (int y = 0; y < size; y++) {
                 int count = 0;
@@ -352,12 +448,12 @@ public strictfp class BinaryMask extends Mask {
                 if (y < size - 1 && !get(x, y + 1))
                     count++;
                 if (count > 1)
-                    maskCopy[x][y] = false;
+                    setBit(maskCopy, size, x, y, false);
                 else
-                    maskCopy[x][y] = get(x, y);
+                    setBit(maskCopy, size, x, y, get(x, y));
             }
         }
-        mask = maskCopy;
+        setMask(maskCopy, size);
         VisualDebugger.visualizeMask(this);
         return this;
     }
@@ -367,7 +463,7 @@ public strictfp class BinaryMask extends Mask {
         holes.randomize(strength).inflate(size);
         BinaryMask maskCopy = this.copy();
         maskCopy.minus(holes);
-        mask = maskCopy.getMask();
+        setMask(maskCopy.getMask(), getSize());
         VisualDebugger.visualizeMask(this);
         return this;
     }
@@ -382,16 +478,28 @@ public strictfp class BinaryMask extends Mask {
 
     public BinaryMask grow(float strength, Symmetry symmetry, int count) {
         for (int i = 0; i < count; i++) {
-            boolean[][] maskCopy = new boolean[getSize()][getSize()];
-            for (int x = getMinXBound(symmetry) - 1; x < getMaxXBound(symmetry) + 1; x++) {
-                for (int y = getMinYBound(x, symmetry) - 1; y < getMaxYBound(x, symmetry) + 1; y++) {
-                    if (inBounds(x, y)) {
-                        boolean value = isEdge(x, y) && random.nextFloat() < strength;
-                        maskCopy[x][y] = get(x, y) || value;
+            long[] maskCopy = ScratchArena.borrowLongs(mask.length);
+            if (CellRandom.isEnabled()) {
+                long key = random.nextLong();
+                forEachRowInBounds(symmetry, 1, x -> {
+                    for (int y = getMinYBound(x, symmetry) - 1; y < getMaxYBound(x, symmetry) + 1; y++) {
+                        if (inBounds(x, y)) {
+                            boolean value = isEdge(x, y) && CellRandom.getFloat(key, x, y) < strength;
+                            setBit(maskCopy, size, x, y, get(x, y) || value);
+                        }
+                    }
+                });
+            } else {
+                for (int x = getMinXBound(symmetry) - 1; x < getMaxXBound(symmetry) + 1; x++) {
+                    for (int y = getMinYBound(x, symmetry) - 1; y < getMaxYBound(x, symmetry) + 1; y++) {
+                        if (inBounds(x, y)) {
+                            boolean value = isEdge(x, y) && random.nextFloat() < strength;
+                            setBit(maskCopy, size, x, y, get(x, y) || value);
+                        }
                     }
                 }
             }
-            mask = maskCopy;
+            setMask(maskCopy, size);
         }
         applySymmetry(symmetry);
         VisualDebugger.visualizeMask(this);
@@ -408,16 +516,28 @@ public strictfp class BinaryMask extends Mask {
 
     public BinaryMask erode(float strength, Symmetry symmetry, int count) {
         for (int i = 0; i < count; i++) {
-            boolean[][] maskCopy = new boolean[getSize()][getSize()];
-            for (int x = getMinXBound(symmetry) - 1; x < getMaxXBound(symmetry) + 1; x++) {
-                for (int y = getMinYBound(x, symmetry) - 1; y < getMaxYBound(x, symmetry) + 1; y++) {
-                    if (inBounds(x, y)) {
-                        boolean value = isEdge(x, y) && random.nextFloat() < strength;
-                        maskCopy[x][y] = mask[x][y] && !value;
+            long[] maskCopy = ScratchArena.borrowLongs(mask.length);
+            if (CellRandom.isEnabled()) {
+                long key = random.nextLong();
+                forEachRowInBounds(symmetry, 1, x -> {
+                    for (int y = getMinYBound(x, symmetry) - 1; y < getMaxYBound(x, symmetry) + 1; y++) {
+                        if (inBounds(x, y)) {
+                            boolean value = isEdge(x, y) && CellRandom.getFloat(key, x, y) < strength;
+                            setBit(maskCopy, size, x, y, get(x, y) && !value);
+                        }
+                    }
+                });
+            } else {
+                for (int x = getMinXBound(symmetry) - 1; x < getMaxXBound(symmetry) + 1; x++) {
+                    for (int y = getMinYBound(x, symmetry) - 1; y < getMaxYBound(x, symmetry) + 1; y++) {
+                        if (inBounds(x, y)) {
+                            boolean value = isEdge(x, y) && random.nextFloat() < strength;
+                            setBit(maskCopy, size, x, y, get(x, y) && !value);
+                        }
                     }
                 }
             }
-            mask = maskCopy;
+            setMask(maskCopy, size);
             applySymmetry(symmetry);
         }
         VisualDebugger.visualizeMask(this);
@@ -425,14 +545,38 @@ public strictfp class BinaryMask extends Mask {
     }
 
     public BinaryMask outline() {
-        boolean[][] maskCopy = new boolean[getSize()][getSize()];
+        int wordsPerRow = getWordsPerRow(size);
+        long lastWordMask = getLastWordMask(size);
+        long lastBit = 1L << (size - 1);
+        long[] maskCopy = ScratchArena.borrowLongs(mask.length);
 
-        for (int x = 0; x < getSize(); x++) {
-            for (int y = 0; y < getSize(); y++) {
-                maskCopy[x][y] = isEdge(x, y);
+        for (int x = 0; x < size; x++) {
+            int row = x * wordsPerRow;
+            for (int i = 0; i < wordsPerRow; i++) {
+                long word = mask[row + i];
+                long edges = 0;
+                if (x > 0) {
+                    edges |= word ^ mask[row - wordsPerRow + i];
+                }
+                if (x < size - 1) {
+                    edges |= word ^ mask[row + wordsPerRow + i];
+                }
+                // neighbours at y - 1, the first cell of the row has none so it is compared with itself
+                long lower = (word << 1) | (i > 0 ? mask[row + i - 1] >>> 63 : word & 1L);
+                edges |= word ^ lower;
+                // neighbours at y + 1, the last cell of the row has none so it is compared with itself
+                long upper = (word >>> 1) | (i < wordsPerRow - 1 ? mask[row + i + 1] << 63 : 0L);
+                if (i == wordsPerRow - 1) {
+                    upper = (upper & ~lastBit) | (word & lastBit);
+                    edges |= word ^ upper;
+                    edges &= lastWordMask;
+                } else {
+                    edges |= word ^ upper;
+                }
+                maskCopy[row + i] = edges;
             }
         }
-        mask = maskCopy;
+        setMask(maskCopy, size);
         VisualDebugger.visualizeMask(this);
         return this;
     }
@@ -442,33 +586,17 @@ public strictfp class BinaryMask extends Mask {
     }
 
     public BinaryMask smooth(int radius, float density) {
-        int[][] innerCount = new int[getSize()][getSize()];
-
-        for (int x = 0; x < getSize(); x++) {
-            for (int y = 0; y < getSize(); y++) {
-                int val = get(x, y) ? 1 : 0;
-                innerCount[x][y] = val;
-                innerCount[x][y] += x > 0 ? innerCount[x - 1][y] : 0;
-                innerCount[x][y] += y > 0 ? innerCount[x][y - 1] : 0;
-                innerCount[x][y] -= x > 0 && y > 0 ? innerCount[x - 1][y - 1] : 0;
+        BoxFilter.filter(size, radius, null, (x, values) -> {
+            for (int y = 0; y < size; y++) {
+                values[y] = getBit(mask, size, x, y) ? 1 : 0;
             }
-        }
-
-        for (int x = 0; x < getSize(); x++) {
-            for (int y = 0; y < getSize(); y++) {
-                int xLeft = StrictMath.max(0, x - radius);
-                int xRight = StrictMath.min(getSize() - 1, x + radius);
-                int yUp = StrictMath.max(0, y - radius);
-                int yDown = StrictMath.min(getSize() - 1, y + radius);
-                int countA = xLeft > 0 && yUp > 0 ? innerCount[xLeft - 1][yUp - 1] : 0;
-                int countB = yUp > 0 ? innerCount[xRight][yUp - 1] : 0;
-                int countC = xLeft > 0 ? innerCount[xLeft - 1][yDown] : 0;
-                int countD = innerCount[xRight][yDown];
-                int count = countD + countA - countB - countC;
-                int area = (xRight - xLeft + 1) * (yDown - yUp + 1);
-                set(x, y, count >= area * density);
+        }, (x, counts) -> {
+            int xLength = BoxFilter.getWindowLength(x, radius, size);
+            for (int y = 0; y < size; y++) {
+                int area = xLength * BoxFilter.getWindowLength(y, radius, size);
+                setBit(mask, size, x, y, counts[y] >= area * density);
             }
-        }
+        });
 
         VisualDebugger.visualizeMask(this);
         return this;
@@ -481,13 +609,10 @@ public strictfp class BinaryMask extends Mask {
         if (other.getSize() != size) {
             other = other.copy().enlarge(size);
         }
-        boolean[][] maskCopy = new boolean[getSize()][getSize()];
-        for (int x = 0; x < size; x++) {
-            for (int y = 0; y < size; y++) {
-                maskCopy[x][y] = get(x, y) || other.get(x, y);
-            }
+        long[] otherMask = other.mask;
+        for (int i = 0; i < mask.length; i++) {
+            mask[i] = mask[i] | otherMask[i];
         }
-        mask = maskCopy;
         VisualDebugger.visualizeMask(this);
         return this;
     }
@@ -498,13 +623,10 @@ public strictfp class BinaryMask extends Mask {
             enlarge(size);
         if (other.getSize() != size)
             other = other.copy().enlarge(size);
-        boolean[][] maskCopy = new boolean[getSize()][getSize()];
-        for (int x = 0; x < size; x++) {
-            for (int y = 0; y < size; y++) {
-                maskCopy[x][y] = get(x, y) && other.get(x, y);
-            }
+        long[] otherMask = other.mask;
+        for (int i = 0; i < mask.length; i++) {
+            mask[i] = mask[i] & otherMask[i];
         }
-        mask = maskCopy;
         VisualDebugger.visualizeMask(this);
         return this;
     }
@@ -515,13 +637,10 @@ public strictfp class BinaryMask extends Mask {
             enlarge(size);
         if (other.getSize() != size)
             other = other.copy().enlarge(size);
-        boolean[][] maskCopy = new boolean[getSize()][getSize()];
-        for (int x = 0; x < size; x++) {
-            for (int y = 0; y < size; y++) {
-                maskCopy[x][y] = get(x, y) && !other.get(x, y);
-            }
+        long[] otherMask = other.mask;
+        for (int i = 0; i < mask.length; i++) {
+            mask[i] = mask[i] & ~otherMask[i];
         }
-        mask = maskCopy;
         VisualDebugger.visualizeMask(this);
         return this;
     }
@@ -562,10 +681,8 @@ public strictfp class BinaryMask extends Mask {
     }
 
     public BinaryMask fillHalf(boolean value, Symmetry symmetry) {
-        for (int x = getMinXBound(symmetry); x < getMaxXBound(symmetry); x++) {
-            for (int y = getMinYBound(x, symmetry); y < getMaxYBound(x, symmetry); y++) {
-                set(x, y, value);
-            }
+        for (int cell : SymmetryTable.getHalfCells(this, symmetry)) {
+            setBit(mask, size, cell / size, cell % size, value);
         }
         VisualDebugger.visualizeMask(this);
         return this;
@@ -656,62 +773,55 @@ public strictfp class BinaryMask extends Mask {
     }
 
     public BinaryMask fillShape(Vector2f location) {
-        LinkedHashSet<Vector2f> area = new LinkedHashSet<>();
-        LinkedHashSet<Vector2f> edge = new LinkedHashSet<>();
-        LinkedHashSet<Vector2f> queueHash = new LinkedHashSet<>();
-        LinkedList<Vector2f> queue = new LinkedList<>();
-        List<int[]> edges = Arrays.asList(new int[]{0, 1}, new int[]{-1, 0}, new int[]{0, -1}, new int[]{1, 0});
         boolean value = get(location);
-        queue.add(location);
-        queueHash.add(location);
-        while (queue.size() > 0) {
-            Vector2f next = queue.get(0);
-            queue.remove(next);
-            queueHash.remove(next);
-            if (get(next) == value && !area.contains(next)) {
-                set(next, !value);
-                area.add(next);
-                edges.forEach((e) -> {
-                    Vector2f newLocation = new Vector2f(next.x + e[0], next.y + e[1]);
-                    if (!queueHash.contains(newLocation) && !area.contains(newLocation) && !edge.contains(newLocation) && inBounds(newLocation)) {
-                        queue.add(newLocation);
-                        queueHash.add(newLocation);
-                    }
-                });
-            } else if (mask[(int) next.x][(int) next.y] != value) {
-                edge.add(next);
-            }
+        long[] visited = ScratchArena.borrowLongs(mask.length);
+        for (int index : getShapeIndices((int) location.x, (int) location.y, visited)) {
+            set(index / size, index % size, !value);
         }
+        ScratchArena.release(visited);
         VisualDebugger.visualizeMask(this);
         return this;
     }
 
     public LinkedHashSet<Vector2f> getShapeCoordinates(Vector2f location) {
         LinkedHashSet<Vector2f> areaHash = new LinkedHashSet<>();
-        LinkedHashSet<Vector2f> edgeHash = new LinkedHashSet<>();
-        LinkedList<Vector2f> queue = new LinkedList<>();
-        LinkedHashSet<Vector2f> queueHash = new LinkedHashSet<>();
-        List<int[]> edges = Arrays.asList(new int[]{0, 1}, new int[]{-1, 0}, new int[]{0, -1}, new int[]{1, 0});
-        boolean value = get(location);
-        queue.add(location);
-        queueHash.add(location);
-        while (queue.size() > 0) {
-            Vector2f next = queue.remove();
-            queueHash.remove(next);
-            if (get(next) == value && !areaHash.contains(next)) {
-                areaHash.add(next);
-                edges.forEach((e) -> {
-                    Vector2f newLocation = new Vector2f(next.x + e[0], next.y + e[1]);
-                    if (!queueHash.contains(newLocation) && !areaHash.contains(newLocation) && !edgeHash.contains(newLocation) && inBounds(newLocation)) {
-                        queue.add(newLocation);
-                        queueHash.add(newLocation);
+        long[] visited = ScratchArena.borrowLongs(mask.length);
+        for (int index : getShapeIndices((int) location.x, (int) location.y, visited)) {
+            areaHash.add(new Vector2f(index / size, index % size));
+        }
+        ScratchArena.release(visited);
+        return areaHash;
+    }
+
+    /**
+     * Breadth first walk over the four-connected cells sharing the value of the start cell,
+     * cells are returned as x * size + y in the order they are reached.
+     * Visited cells are marked in the given bit set so it can be shared between walks over disjoint shapes.
+     */
+    private int[] getShapeIndices(int startX, int startY, long[] visited) {
+        boolean value = get(startX, startY);
+        int[] queue = new int[64];
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = startX * size + startY;
+        setBit(visited, size, startX, startY, true);
+        while (head < tail) {
+            int index = queue[head++];
+            int x = index / size;
+            int y = index % size;
+            for (int i = 0; i < 4; i++) {
+                int nextX = x + NEIGHBOUR_X[i];
+                int nextY = y + NEIGHBOUR_Y[i];
+                if (inBounds(nextX, nextY) && !getBit(visited, size, nextX, nextY) && get(nextX, nextY) == value) {
+                    setBit(visited, size, nextX, nextY, true);
+                    if (tail == queue.length) {
+                        queue = Arrays.copyOf(queue, queue.length * 2);
                     }
-                });
-            } else if (get(next) != value) {
-                edgeHash.add(next);
+                    queue[tail++] = nextX * size + nextY;
+                }
             }
         }
-        return areaHash;
+        return Arrays.copyOf(queue, tail);
     }
 
     public BinaryMask fillCoordinates(Collection<Vector2f> coordinates, boolean value) {
@@ -723,42 +833,7 @@ public strictfp class BinaryMask extends Mask {
     public BinaryMask fillGaps(int minDist) {
         BinaryMask maskCopy = copy().outline();
         BinaryMask filledGaps = new BinaryMask(getSize(), random.nextLong(), symmetryHierarchy);
-        LinkedHashSet<Vector2f> locHash = maskCopy.getAllCoordinatesEqualTo(true, 1);
-        LinkedList<Vector2f> locList = new LinkedList<>(locHash);
-        LinkedHashSet<Vector2f> toFill = new LinkedHashSet<>();
-        while (locList.size() > 0) {
-            Vector2f location = locList.removeFirst();
-            Set<Vector2f> connected = maskCopy.getShapeCoordinates(location);
-            BinaryMask otherEdgesMask = new BinaryMask(getSize(), null, symmetryHierarchy);
-            otherEdgesMask.fillCoordinates(connected, true).inflate(minDist).intersect(maskCopy);
-            Set<Vector2f> otherEdges = otherEdgesMask.getAllCoordinatesEqualTo(true, 1);
-            otherEdges.removeAll(connected);
-            List<Vector2f> connectedList = new LinkedList<>(connected);
-            List<Vector2f> otherEdgesList = new LinkedList<>(otherEdges);
-            connectedList.forEach(loc -> {
-                if (loc.x > getMinXBound(symmetryHierarchy.getSpawnSymmetry()) && loc.x < getMaxXBound(symmetryHierarchy.getSpawnSymmetry())
-                        && loc.y > getMinYBound((int) loc.x, symmetryHierarchy.getSpawnSymmetry()) && loc.y < getMaxYBound((int) loc.x, symmetryHierarchy.getSpawnSymmetry())) {
-                    AtomicReference<Float> smallestDist = new AtomicReference<>((float) getSize());
-                    AtomicReference<Vector2f> closest = new AtomicReference<>();
-                    otherEdgesList.forEach(otherLoc -> {
-                        if (get(otherLoc)) {
-                            float dist = loc.getDistance(otherLoc);
-                            if (dist < smallestDist.get()) {
-                                closest.set(otherLoc);
-                                smallestDist.set(dist);
-                            }
-                        }
-                    });
-                    if (smallestDist.get() < minDist) {
-                        toFill.addAll(loc.getLine(closest.get()));
-                        otherEdgesList.remove(closest.get());
-                    }
-                }
-            });
-            locList.removeAll(connected);
-            locHash.removeAll(connected);
-        }
-        filledGaps.fillCoordinates(toFill, true).smooth(16, .1f);
+        filledGaps.fillCoordinates(getGapLines(maskCopy, minDist), true).smooth(16, .1f);
         filledGaps.erode(.5f, symmetryHierarchy.getSpawnSymmetry(), 8).grow(.5f, symmetryHierarchy.getSpawnSymmetry(), 8);
         filledGaps.smooth(4);
         combine(filledGaps);
@@ -770,42 +845,7 @@ public strictfp class BinaryMask extends Mask {
     public BinaryMask widenGaps(int minDist) {
         BinaryMask maskCopy = copy().invert().outline();
         BinaryMask filledGaps = new BinaryMask(getSize(), random.nextLong(), symmetryHierarchy);
-        LinkedHashSet<Vector2f> locHash = maskCopy.getAllCoordinatesEqualTo(true, 1);
-        LinkedList<Vector2f> locList = new LinkedList<>(locHash);
-        LinkedHashSet<Vector2f> toFill = new LinkedHashSet<>();
-        while (locList.size() > 0) {
-            Vector2f location = locList.removeFirst();
-            Set<Vector2f> connected = maskCopy.getShapeCoordinates(location);
-            BinaryMask otherEdgesMask = new BinaryMask(getSize(), null, symmetryHierarchy);
-            otherEdgesMask.fillCoordinates(connected, true).inflate(minDist).intersect(maskCopy);
-            Set<Vector2f> otherEdges = otherEdgesMask.getAllCoordinatesEqualTo(true, 1);
-            otherEdges.removeAll(connected);
-            List<Vector2f> connectedList = new LinkedList<>(connected);
-            List<Vector2f> otherEdgesList = new LinkedList<>(otherEdges);
-            connectedList.forEach(loc -> {
-                if (loc.x > getMinXBound(symmetryHierarchy.getSpawnSymmetry()) && loc.x < getMaxXBound(symmetryHierarchy.getSpawnSymmetry())
-                        && loc.y > getMinYBound((int) loc.x, symmetryHierarchy.getSpawnSymmetry()) && loc.y < getMaxYBound((int) loc.x, symmetryHierarchy.getSpawnSymmetry())) {
-                    AtomicReference<Float> smallestDist = new AtomicReference<>((float) getSize());
-                    AtomicReference<Vector2f> closest = new AtomicReference<>();
-                    otherEdgesList.forEach(otherLoc -> {
-                        if (get(otherLoc)) {
-                            float dist = loc.getDistance(otherLoc);
-                            if (dist < smallestDist.get()) {
-                                closest.set(otherLoc);
-                                smallestDist.set(dist);
-                            }
-                        }
-                    });
-                    if (smallestDist.get() < minDist) {
-                        toFill.addAll(loc.getLine(closest.get()));
-                        otherEdgesList.remove(closest.get());
-                    }
-                }
-            });
-            locList.removeAll(connected);
-            locHash.removeAll(connected);
-        }
-        filledGaps.fillCoordinates(toFill, true).smooth(16, .1f);
+        filledGaps.fillCoordinates(getGapLines(maskCopy, minDist), true).smooth(16, .1f);
         filledGaps.erode(.5f, symmetryHierarchy.getSpawnSymmetry(), 8).grow(.5f, symmetryHierarchy.getSpawnSymmetry(), 8);
         filledGaps.smooth(4);
         minus(filledGaps);
@@ -814,31 +854,103 @@ public strictfp class BinaryMask extends Mask {
         return this;
     }
 
+    /**
+     * For every edge shape of the outline, connects its cells to the closest set cell of another edge shape
+     * closer than minDist. Shapes are visited in scan order and their cells in breadth first order.
+     */
+    private LinkedHashSet<Vector2f> getGapLines(BinaryMask outline, int minDist) {
+        Symmetry spawnSymmetry = symmetryHierarchy.getSpawnSymmetry();
+        ConnectedComponents edgeShapes = new ConnectedComponents(outline, true);
+        long[] visited = ScratchArena.borrowLongs(mask.length);
+        float radius2 = (minDist + 0.5f) * (minDist + 0.5f);
+        int margin = minDist + 1;
+        LinkedHashSet<Vector2f> toFill = new LinkedHashSet<>();
+        for (int label = 1; label <= edgeShapes.getComponentCount(); label++) {
+            int[] connected = outline.getShapeIndices(edgeShapes.getFirstX(label), edgeShapes.getFirstY(label), visited);
+
+            int windowX = StrictMath.max(0, edgeShapes.getMinX(label) - margin);
+            int windowY = StrictMath.max(0, edgeShapes.getMinY(label) - margin);
+            int windowSize = StrictMath.max(StrictMath.min(size, edgeShapes.getMaxX(label) + margin + 1) - windowX,
+                    StrictMath.min(size, edgeShapes.getMaxY(label) + margin + 1) - windowY);
+            BinaryMask shape = new BinaryMask(windowSize, null, symmetryHierarchy);
+            for (int index : connected) {
+                shape.set(index / size - windowX, index % size - windowY, true);
+            }
+            DistanceField distanceField = new DistanceField(shape, true);
+
+            int otherCount = 0;
+            int[] otherEdges = new int[64];
+            for (int x = windowX; x < StrictMath.min(size, windowX + windowSize); x++) {
+                for (int y = windowY; y < StrictMath.min(size, windowY + windowSize); y++) {
+                    if (outline.get(x, y) && edgeShapes.getLabel(x, y) != label && distanceField.getSquaredDistance(x - windowX, y - windowY) <= radius2) {
+                        if (otherCount == otherEdges.length) {
+                            otherEdges = Arrays.copyOf(otherEdges, otherCount * 2);
+                        }
+                        otherEdges[otherCount++] = x * size + y;
+                    }
+                }
+            }
+            boolean[] used = new boolean[otherCount];
+
+            for (int index : connected) {
+                int x = index / size;
+                int y = index % size;
+                if (x > getMinXBound(spawnSymmetry) && x < getMaxXBound(spawnSymmetry)
+                        && y > getMinYBound(x, spawnSymmetry) && y < getMaxYBound(x, spawnSymmetry)) {
+                    float smallestDist = (float) getSize();
+                    int closest = -1;
+                    for (int i = 0; i < otherCount; i++) {
+                        int otherX = otherEdges[i] / size;
+                        int otherY = otherEdges[i] % size;
+                        if (!used[i] && get(otherX, otherY)) {
+                            float dx = x - otherX;
+                            float dy = y - otherY;
+                            float dist = (float) StrictMath.sqrt(dx * dx + dy * dy);
+                            if (dist < smallestDist) {
+                                closest = i;
+                                smallestDist = dist;
+                            }
+                        }
+                    }
+                    if (smallestDist < minDist) {
+                        toFill.addAll(new Vector2f(x, y).getLine(new Vector2f(otherEdges[closest] / size, otherEdges[closest] % size)));
+                        used[closest] = true;
+                    }
+                }
+            }
+            distanceField.release();
+        }
+        edgeShapes.release();
+        ScratchArena.release(visited);
+        return toFill;
+    }
+
     public BinaryMask filterShapes(int minArea) {
-        BinaryMask maskCopy = copy();
-        LinkedHashSet<Vector2f> locHash = getAllCoordinatesEqualTo(true, 1);
-        LinkedList<Vector2f> locList = new LinkedList<>(locHash);
-        while (locList.size() > 0) {
-            Vector2f location = locList.removeFirst();
-            Set<Vector2f> coordinates = getShapeCoordinates(location);
-            maskCopy.fillCoordinates(coordinates, false);
-            if (coordinates.size() < minArea) {
-                fillCoordinates(coordinates, false);
-            }
-            locList.removeAll(coordinates);
-        }
-        maskCopy = copy().invert();
-        locHash = getAllCoordinatesEqualTo(false, 1);
-        locList = new LinkedList<>(locHash);
-        while (locList.size() > 0) {
-            Vector2f location = locList.removeFirst();
-            Set<Vector2f> coordinates = getShapeCoordinates(location);
-            maskCopy.fillCoordinates(coordinates, false);
-            if (coordinates.size() < minArea) {
-                fillCoordinates(coordinates, true);
-            }
-            locList.removeAll(coordinates);
+        if (random != null) {
+            // the former flood fill drew two mask copies here, keep consuming their seeds so existing maps stay the same
+            random.nextLong();
+            random.nextLong();
+        }
+        ConnectedComponents shapes = new ConnectedComponents(this, true);
+        for (int x = 0; x < size; x++) {
+            for (int y = 0; y < size; y++) {
+                int label = shapes.getLabel(x, y);
+                if (label != 0 && shapes.getArea(label) < minArea) {
+                    set(x, y, false);
+                }
+            }
+        }
+        shapes.release();
+        ConnectedComponents gaps = new ConnectedComponents(this, false);
+        for (int x = 0; x < size; x++) {
+            for (int y = 0; y < size; y++) {
+                int label = gaps.getLabel(x, y);
+                if (label != 0 && gaps.getArea(label) < minArea) {
+                    set(x, y, true);
+                }
+            }
         }
+        gaps.release();
         applySymmetry(symmetryHierarchy.getSpawnSymmetry());
         VisualDebugger.visualizeMask(this);
         return this;
@@ -846,11 +958,8 @@ public strictfp class BinaryMask extends Mask {
 
     public int getCount() {
         int cellCount = 0;
-        for (int y = 0; y < getSize(); y++) {
-            for (int x = 0; x < getSize(); x++) {
-                if (get(x, y))
-                    cellCount++;
-            }
+        for (long word : mask) {
+            cellCount += Long.bitCount(word);
         }
         return cellCount;
     }
@@ -880,45 +989,52 @@ public strictfp class BinaryMask extends Mask {
     }
 
     public LinkedHashSet<Vector2f> getSpacedCoordinates(float radius, int spacing) {
-        LinkedHashSet<Vector2f> coordinates = getAllCoordinates(spacing);
-        Vector2f[] coordinateArray = coordinates.toArray(new Vector2f[0]);
-        LinkedHashSet<Vector2f> chosenCoordinates = new LinkedHashSet<>();
-        while (coordinates.size() > 0) {
-            Vector2f location = coordinateArray[0];
-            chosenCoordinates.add(location);
-            coordinates.removeIf((loc) -> location.getDistance(loc) < radius);
-            coordinateArray = coordinates.toArray(new Vector2f[0]);
-        }
-        return chosenCoordinates;
+        return getSpacedCoordinates(new PoissonDiskSampler(size, getCandidateCells(null, spacing), radius));
     }
 
     public LinkedHashSet<Vector2f> getSpacedCoordinatesEqualTo(boolean value, float radius, int spacing) {
-        LinkedHashSet<Vector2f> coordinates = getAllCoordinatesEqualTo(value, spacing);
-        Vector2f[] coordinateArray = coordinates.toArray(new Vector2f[0]);
+        return getSpacedCoordinates(new PoissonDiskSampler(size, getCandidateCells(value, spacing), radius));
+    }
+
+    public LinkedHashSet<Vector2f> getRandomCoordinates(float minSpacing) {
+        PoissonDiskSampler sampler = new PoissonDiskSampler(size, getCandidateCells(true, 1), minSpacing);
         LinkedHashSet<Vector2f> chosenCoordinates = new LinkedHashSet<>();
-        while (coordinates.size() > 0) {
-            Vector2f location = coordinateArray[0];
+        while (sampler.getRemainingCount() > 0) {
+            int cell = sampler.take(random.nextInt(sampler.getRemainingCount()));
+            Vector2f location = new Vector2f(cell / size, cell % size);
             chosenCoordinates.add(location);
-            coordinates.removeIf((loc) -> location.getDistance(loc) < radius);
-            coordinateArray = coordinates.toArray(new Vector2f[0]);
+            sampler.exclude(location.x, location.y);
+            Vector2f symmetryPoint = getSymmetryPoint(location);
+            sampler.exclude(symmetryPoint.x, symmetryPoint.y);
         }
         return chosenCoordinates;
     }
 
-    public LinkedHashSet<Vector2f> getRandomCoordinates(float minSpacing) {
-        LinkedHashSet<Vector2f> coordinates = getAllCoordinatesEqualTo(true, 1);
-        Vector2f[] coordinateArray = coordinates.toArray(new Vector2f[0]);
+    private LinkedHashSet<Vector2f> getSpacedCoordinates(PoissonDiskSampler sampler) {
         LinkedHashSet<Vector2f> chosenCoordinates = new LinkedHashSet<>();
-        while (coordinates.size() > 0) {
-            Vector2f location = coordinateArray[random.nextInt(coordinates.size())];
+        while (sampler.getRemainingCount() > 0) {
+            int cell = sampler.take(0);
+            Vector2f location = new Vector2f(cell / size, cell % size);
             chosenCoordinates.add(location);
-            coordinates.removeIf((loc) -> location.getDistance(loc) < minSpacing);
-            coordinates.removeIf((loc) -> getSymmetryPoint(location).getDistance(loc) < minSpacing);
-            coordinateArray = coordinates.toArray(new Vector2f[0]);
+            sampler.exclude(location.x, location.y);
         }
         return chosenCoordinates;
     }
 
+    private int[] getCandidateCells(Boolean value, int spacing) {
+        int stride = (size + spacing - 1) / spacing;
+        int[] cells = new int[stride * stride];
+        int count = 0;
+        for (int x = 0; x < size; x += spacing) {
+            for (int y = 0; y < size; y += spacing) {
+                if (value == null || getBit(mask, size, x, y) == value) {
+                    cells[count++] = x * size + y;
+                }
+            }
+        }
+        return Arrays.copyOf(cells, count);
+    }
+
     public Vector2f getRandomPosition() {
         LinkedHashSet<Vector2f> coordinates = getAllCoordinatesEqualTo(true, 1);
         if (coordinates.size() == 0)
@@ -940,29 +1056,15 @@ public strictfp class BinaryMask extends Mask {
     }
 
     public void applySymmetry(Symmetry symmetry, boolean reverse) {
-        switch (symmetry) {
-            case QUAD, DIAG -> {
-                for (int x = getMinXBound(symmetry); x < getMaxXBound(symmetry); x++) {
-                    for (int y = getMinYBound(x, symmetry); y < getMaxYBound(x, symmetry); y++) {
-                        Vector2f[] symPoints = getTerrainSymmetryPoints(x, y, symmetry);
-                        for (Vector2f symPoint : symPoints) {
-                            set(symPoint, get(x, y));
-                        }
-                    }
-                }
-            }
-            default -> {
-                for (int x = getMinXBound(symmetry); x < getMaxXBound(symmetry); x++) {
-                    for (int y = getMinYBound(x, symmetry); y < getMaxYBound(x, symmetry); y++) {
-                        Vector2f symPoint = getSymmetryPoint(x, y, symmetry);
-                        if (reverse) {
-                            set(x, y, get(symPoint));
-                        } else {
-                            set(symPoint, get(x, y));
-                        }
-                    }
-                }
-            }
+        SymmetryTable table = SymmetryTable.getMirrorTable(this, symmetry, reverse);
+        int[] targets = table.getTargets();
+        int[] sources = table.getSources();
+        long[] values = table.isOverlapping() ? ScratchArena.copyOf(mask) : mask;
+        for (int i = 0; i < targets.length; i++) {
+            setBit(mask, size, targets[i] / size, targets[i] % size, getBit(values, size, sources[i] / size, sources[i] % size));
+        }
+        if (values != mask) {
+            ScratchArena.release(values);
         }
     }
 
@@ -983,13 +1085,32 @@ public strictfp class BinaryMask extends Mask {
         out.close();
     }
 
+    /**
+     * Writes the size, random state and storage of the mask, {@link #readState} restores all of them
+     */
+    void writeState(DataOutputStream out) throws IOException {
+        MaskStates.writeHeader(out, MaskStates.BINARY, size, random);
+        for (long word : mask) {
+            out.writeLong(word);
+        }
+    }
+
+    void readState(DataInputStream in) throws IOException {
+        MaskStates.checkType(in, MaskStates.BINARY);
+        int size = in.readInt();
+        random = MaskStates.readRandom(in);
+        long[] words = ScratchArena.borrowLongs(getWordCount(size));
+        for (int i = 0; i < words.length; i++) {
+            words[i] = in.readLong();
+        }
+        setMask(words, size);
+    }
+
     public String toHash() throws NoSuchAlgorithmException {
         ByteBuffer bytes = ByteBuffer.allocate(getSize() * getSize());
-        for (int x = getMinXBound(symmetryHierarchy.getSpawnSymmetry()); x < getMaxXBound(symmetryHierarchy.getSpawnSymmetry()); x++) {
-            for (int y = getMinYBound(x, symmetryHierarchy.getSpawnSymmetry()); y < getMaxYBound(x, symmetryHierarchy.getSpawnSymmetry()); y++) {
-                byte b = get(x, y) ? (byte) 1 : 0;
-                bytes.put(b);
-            }
+        for (int cell : SymmetryTable.getHalfCells(this, symmetryHierarchy.getSpawnSymmetry())) {
+            byte b = getBit(mask, size, cell / size, cell % size) ? (byte) 1 : 0;
+            bytes.put(b);
         }
         byte[] data = MessageDigest.getInstance("MD5").digest(bytes.array());
         StringBuilder stringBuilder = new StringBuilder();
@@ -999,6 +1120,13 @@ public strictfp class BinaryMask extends Mask {
         return stringBuilder.toString();
     }
 
+    /**
+     * Hash of the raw storage, much cheaper than {@link #toHash()} but not comparable to it
+     */
+    public String toFastHash() {
+        return FastHash.toHex(FastHash.hash(mask));
+    }
+
     public void show() {
         VisualDebugger.visualizeMask(this);
     }
@@ -0,0 +1,99 @@
+package map;
+
+import util.ParallelUtils;
+
+import java.util.Arrays;
+
+/**
+ * Separable running sum box filter. Every cell gets the exact sum of the source values in the square of
+ * radius cells around it, clipped to the mask, computed as window sums along y and then window sums of those along x.
+ * Sums are kept in longs, so no source a mask can hold overflows them. All buffers, including the row accumulators of
+ * every band, are borrowed from the {@link ScratchArena}, so filtering allocates nothing once the arena is warm.
+ */
+strictfp class BoxFilter {
+    interface RowSource {
+        void readRow(int x, long[] values);
+    }
+
+    interface RowSink {
+        void writeRow(int x, long[] sums);
+    }
+
+    /**
+     * @param outputRows rows the sink needs, or null for all of them
+     */
+    static void filter(int size, int radius, boolean[] outputRows, RowSource source, RowSink sink) {
+        long[] rowSums = ScratchArena.borrowLongs(size * size);
+        boolean[] inputRows = outputRows == null ? null : getInputRows(outputRows, radius);
+
+        ParallelUtils.forEachBand(size, (start, end) -> {
+            long[] values = ScratchArena.borrowLongs(size);
+            for (int x = start; x < end; x++) {
+                int row = x * size;
+                if (inputRows == null || inputRows[x]) {
+                    source.readRow(x, values);
+                    long sum = 0;
+                    for (int y = 0; y <= StrictMath.min(radius, size - 1); y++) {
+                        sum += values[y];
+                    }
+                    for (int y = 0; y < size; y++) {
+                        rowSums[row + y] = sum;
+                        if (y + radius + 1 < size) {
+                            sum += values[y + radius + 1];
+                        }
+                        if (y - radius >= 0) {
+                            sum -= values[y - radius];
+                        }
+                    }
+                } else {
+                    Arrays.fill(rowSums, row, row + size, 0);
+                }
+            }
+            ScratchArena.release(values);
+        });
+
+        ParallelUtils.forEachBand(size, (start, end) -> {
+            long[] sums = ScratchArena.borrowLongs(size);
+            for (int x = StrictMath.max(0, start - radius); x <= StrictMath.min(size - 1, start + radius); x++) {
+                addRow(sums, rowSums, x, size, 1);
+            }
+            for (int x = start; x < end; x++) {
+                if (outputRows == null || outputRows[x]) {
+                    sink.writeRow(x, sums);
+                }
+                if (x + radius + 1 < size) {
+                    addRow(sums, rowSums, x + radius + 1, size, 1);
+                }
+                if (x - radius >= 0) {
+                    addRow(sums, rowSums, x - radius, size, -1);
+                }
+            }
+            ScratchArena.release(sums);
+        });
+        ScratchArena.release(rowSums);
+    }
+
+    /**
+     * Number of cells in the clipped window along one axis, the area of a cell's window is the product of both axes
+     */
+    static int getWindowLength(int coordinate, int radius, int size) {
+        return StrictMath.min(size - 1, coordinate + radius) - StrictMath.max(0, coordinate - radius) + 1;
+    }
+
+    private static void addRow(long[] sums, long[] rowSums, int x, int size, int sign) {
+        int row = x * size;
+        for (int y = 0; y < size; y++) {
+            sums[y] += sign * rowSums[row + y];
+        }
+    }
+
+    private static boolean[] getInputRows(boolean[] outputRows, int radius) {
+        boolean[] inputRows = new boolean[outputRows.length];
+        for (int x = 0; x < outputRows.length; x++) {
+            if (outputRows[x]) {
+                Arrays.fill(inputRows, StrictMath.max(0, x - radius), StrictMath.min(outputRows.length, x + radius + 1), true);
+            }
+        }
+        return inputRows;
+    }
+}
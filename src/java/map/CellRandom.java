@@ -0,0 +1,37 @@
+package map;
+
+import util.Pipeline;
+import util.PipelineContext;
+
+/**
+ * Counter based random numbers for stochastic mask operations. The draw of a cell is a SplitMix64 hash of a per
+ * operation key and the cell coordinates, so it does not depend on the order cells are visited in and rows can be
+ * processed in parallel. Operations draw their key from the mask's own random, which makes the result a function of
+ * the mask seed and the number of operations applied before it.
+ * <p>
+ * Maps generated with this mode differ from sequentially drawn ones, so it is only used when the context bound to the
+ * thread running the operation is set to it, see {@link PipelineContext#setCellRandom}.
+ */
+public strictfp class CellRandom {
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    public static boolean isEnabled() {
+        PipelineContext context = Pipeline.getBoundContext();
+        return context != null && context.isCellRandom();
+    }
+
+    /**
+     * Uniform float in [0, 1) with 24 random bits, like {@link java.util.Random#nextFloat()}
+     */
+    public static float getFloat(long key, int x, int y) {
+        long counter = ((long) x << 32) | (y & 0xffffffffL);
+        long z = mix(mix(key) + counter * GOLDEN_GAMMA);
+        return (z >>> 40) * 0x1.0p-24f;
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -4,6 +4,9 @@ import lombok.Getter;
 import util.Pipeline;
 import util.Util;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.nio.file.Path;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
@@ -16,6 +19,7 @@ public strictfp class ConcurrentBinaryMask extends ConcurrentMask {
     private BinaryMask binaryMask;
 
     public ConcurrentBinaryMask(int size, Long seed, SymmetryHierarchy symmetryHierarchy, String name) {
+        this.pipelineContext = Pipeline.getContext();
         this.binaryMask = new BinaryMask(size, seed, symmetryHierarchy);
         this.name = name;
         this.symmetryHierarchy = this.binaryMask.getSymmetryHierarchy();
@@ -24,6 +28,7 @@ public strictfp class ConcurrentBinaryMask extends ConcurrentMask {
     }
 
     public ConcurrentBinaryMask(int size, Long seed, Symmetry symmetry, String name) {
+        this.pipelineContext = Pipeline.getContext();
         this.binaryMask = new BinaryMask(size, seed, symmetry);
         this.name = name;
         this.symmetryHierarchy = this.binaryMask.getSymmetryHierarchy();
@@ -32,6 +37,7 @@ public strictfp class ConcurrentBinaryMask extends ConcurrentMask {
     }
 
     public ConcurrentBinaryMask(ConcurrentBinaryMask mask, Long seed, String name) {
+        this.pipelineContext = mask.getPipelineContext();
         this.name = name;
         this.binaryMask = new BinaryMask(1, seed, mask.getSymmetryHierarchy());
 
@@ -44,19 +50,29 @@ public strictfp class ConcurrentBinaryMask extends ConcurrentMask {
         this.symmetryHierarchy = mask.getSymmetryHierarchy();
     }
 
+    private ConcurrentBinaryMask(ConcurrentBinaryMask mask, BinaryMask view) {
+        this.pipelineContext = mask.getPipelineContext();
+        this.name = "mocked";
+        this.binaryMask = view;
+        this.symmetryHierarchy = mask.getSymmetryHierarchy();
+    }
+
     public ConcurrentBinaryMask(BinaryMask mask, Long seed, String name) {
+        this.pipelineContext = Pipeline.getContext();
         this.name = name;
         this.binaryMask = new BinaryMask(mask, seed);
         this.symmetryHierarchy = mask.getSymmetryHierarchy();
     }
 
     public ConcurrentBinaryMask(FloatMask mask, float threshold, Long seed, String name) {
+        this.pipelineContext = Pipeline.getContext();
         this.name = name;
         this.binaryMask = new BinaryMask(mask, threshold, seed);
         this.symmetryHierarchy = mask.getSymmetryHierarchy();
     }
 
     public ConcurrentBinaryMask(ConcurrentFloatMask mask, float threshold, Long seed, String name) {
+        this.pipelineContext = mask.getPipelineContext();
         this.name = name;
         this.binaryMask = new BinaryMask(1, seed, mask.getSymmetryHierarchy());
 
@@ -282,22 +298,55 @@ public strictfp class ConcurrentBinaryMask extends ConcurrentMask {
         return binaryMask.toHash();
     }
 
+    @Override
+    public String toFastHash() {
+        return binaryMask.toFastHash();
+    }
+
+    @Override
+    public void writeState(DataOutputStream out) throws IOException {
+        binaryMask.writeState(out);
+    }
+
+    @Override
+    public void readState(DataInputStream in) throws IOException {
+        binaryMask.readState(in);
+    }
+
     protected BinaryMask getBinaryMask() {
         return binaryMask;
     }
 
     public BinaryMask getFinalMask() {
         Pipeline.await(this);
+        if (binaryMask.isReleased()) {
+            throw new IllegalStateException(String.format("Mask %s was released after its last pipeline operation, it has to be retained to be read afterwards", name));
+        }
         return binaryMask.copy();
     }
 
     @Override
-    public ConcurrentBinaryMask mockClone() {
-        return new ConcurrentBinaryMask(this, 0L, "mocked");
+    public ConcurrentBinaryMask getSnapshot() {
+        return new ConcurrentBinaryMask(this, binaryMask.getSharedView(0L));
+    }
+
+    @Override
+    public void detach() {
+        binaryMask.unshare();
+    }
+
+    @Override
+    public void releaseSnapshot() {
+        binaryMask.releaseStorage();
+    }
+
+    @Override
+    public void releaseStorage() {
+        binaryMask.releaseStorage();
     }
 
     @Override
-    int getSize() {
+    public int getSize() {
         return binaryMask.getSize();
     }
 
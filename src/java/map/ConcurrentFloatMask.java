@@ -4,6 +4,9 @@ import lombok.Getter;
 import util.Pipeline;
 import util.Util;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.nio.file.Path;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
@@ -16,6 +19,7 @@ public strictfp class ConcurrentFloatMask extends ConcurrentMask {
     private FloatMask floatMask;
 
     public ConcurrentFloatMask(int size, Long seed, SymmetryHierarchy symmetryHierarchy, String name) {
+        this.pipelineContext = Pipeline.getContext();
         this.floatMask = new FloatMask(size, seed, symmetryHierarchy);
         this.name = name;
         this.symmetryHierarchy = this.floatMask.getSymmetryHierarchy();
@@ -24,6 +28,7 @@ public strictfp class ConcurrentFloatMask extends ConcurrentMask {
     }
 
     public ConcurrentFloatMask(ConcurrentFloatMask mask, Long seed, String name) {
+        this.pipelineContext = mask.getPipelineContext();
         this.name = name;
         this.floatMask = new FloatMask(mask.getSize(), seed, mask.getSymmetryHierarchy());
 
@@ -36,6 +41,13 @@ public strictfp class ConcurrentFloatMask extends ConcurrentMask {
         this.symmetryHierarchy = mask.getSymmetryHierarchy();
     }
 
+    private ConcurrentFloatMask(ConcurrentFloatMask mask, FloatMask view) {
+        this.pipelineContext = mask.getPipelineContext();
+        this.name = "mocked";
+        this.floatMask = view;
+        this.symmetryHierarchy = mask.getSymmetryHierarchy();
+    }
+
     public ConcurrentFloatMask init(ConcurrentBinaryMask other, float low, float high) {
         return Pipeline.add(this, Arrays.asList(this, other), res -> this.floatMask.init(((ConcurrentBinaryMask) res.get(1)).getBinaryMask(), low, high)
         );
@@ -127,22 +139,55 @@ public strictfp class ConcurrentFloatMask extends ConcurrentMask {
         return floatMask.toHash();
     }
 
+    @Override
+    public String toFastHash() {
+        return floatMask.toFastHash();
+    }
+
+    @Override
+    public void writeState(DataOutputStream out) throws IOException {
+        floatMask.writeState(out);
+    }
+
+    @Override
+    public void readState(DataInputStream in) throws IOException {
+        floatMask.readState(in);
+    }
+
     protected FloatMask getFloatMask() {
         return floatMask;
     }
 
     public FloatMask getFinalMask() {
         Pipeline.await(this);
+        if (floatMask.isReleased()) {
+            throw new IllegalStateException(String.format("Mask %s was released after its last pipeline operation, it has to be retained to be read afterwards", name));
+        }
         return floatMask.copy();
     }
 
     @Override
-    public ConcurrentFloatMask mockClone() {
-        return new ConcurrentFloatMask(this, 0L, "mocked");
+    public ConcurrentFloatMask getSnapshot() {
+        return new ConcurrentFloatMask(this, floatMask.getSharedView(0L));
+    }
+
+    @Override
+    public void detach() {
+        floatMask.unshare();
+    }
+
+    @Override
+    public void releaseSnapshot() {
+        floatMask.releaseStorage();
+    }
+
+    @Override
+    public void releaseStorage() {
+        floatMask.releaseStorage();
     }
 
     @Override
-    int getSize() {
+    public int getSize() {
         return floatMask.getSize();
     }
 
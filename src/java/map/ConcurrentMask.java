@@ -1,15 +1,57 @@
 package map;
 
+import util.PipelineContext;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.nio.file.Path;
 import java.security.NoSuchAlgorithmException;
 
 public strictfp abstract class ConcurrentMask extends Mask {
 
-    abstract public ConcurrentMask mockClone();
+    protected PipelineContext pipelineContext;
+
+    /**
+     * Read only view of the current values that shares their storage with this mask
+     */
+    abstract public ConcurrentMask getSnapshot();
+
+    /**
+     * Gives this mask a private copy of its storage, so it can be written while snapshots are still being read
+     */
+    abstract public void detach();
+
+    /**
+     * Hands the storage of a snapshot back once neither its readers nor the detached owner need it
+     */
+    abstract public void releaseSnapshot();
+
+    /**
+     * Hands the storage of this mask back once the last pipeline operation reading it is done, unless the mask was
+     * retained with {@link PipelineContext#retain}
+     */
+    abstract public void releaseStorage();
 
     abstract public String getName();
 
     abstract public void writeToFile(Path path);
 
     abstract public String toHash() throws NoSuchAlgorithmException;
+
+    abstract public String toFastHash();
+
+    /**
+     * Writes everything later operations depend on, in the format of the mask cache
+     */
+    abstract public void writeState(DataOutputStream out) throws IOException;
+
+    abstract public void readState(DataInputStream in) throws IOException;
+
+    @Override
+    abstract public int getSize();
+
+    public PipelineContext getPipelineContext() {
+        return pipelineContext;
+    }
 }
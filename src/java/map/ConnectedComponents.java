@@ -0,0 +1,162 @@
+package map;
+
+import java.util.Arrays;
+
+/**
+ * Four-connected labeling of all cells of a mask holding a given value, done in two scanline passes with union find.
+ * Labels start at 1 and are numbered in the order their first cell is met when scanning x then y,
+ * cells with the other value are labeled 0.
+ */
+public strictfp class ConnectedComponents {
+    private final int size;
+    private final int[] labels;
+    private final int componentCount;
+    private final int[] firstCells;
+    private final int[] areas;
+    private final int[] minX;
+    private final int[] minY;
+    private final int[] maxX;
+    private final int[] maxY;
+
+    public ConnectedComponents(BinaryMask mask, boolean value) {
+        this.size = mask.getSize();
+        this.labels = ScratchArena.borrowInts(size * size);
+        int[] parents = new int[64];
+        int provisionalCount = 0;
+
+        for (int x = 0; x < size; x++) {
+            int row = x * size;
+            for (int y = 0; y < size; y++) {
+                if (mask.get(x, y) != value) {
+                    continue;
+                }
+                int left = x > 0 ? labels[row - size + y] : 0;
+                int up = y > 0 ? labels[row + y - 1] : 0;
+                if (left == 0 && up == 0) {
+                    provisionalCount++;
+                    if (provisionalCount >= parents.length) {
+                        parents = Arrays.copyOf(parents, parents.length * 2);
+                    }
+                    parents[provisionalCount] = provisionalCount;
+                    labels[row + y] = provisionalCount;
+                } else if (left == 0 || up == 0) {
+                    labels[row + y] = left + up;
+                } else {
+                    labels[row + y] = union(parents, left, up);
+                }
+            }
+        }
+
+        int[] finalLabels = new int[provisionalCount + 1];
+        int[] firstCells = new int[provisionalCount + 1];
+        int count = 0;
+        for (int i = 0; i < labels.length; i++) {
+            if (labels[i] != 0) {
+                int root = find(parents, labels[i]);
+                if (finalLabels[root] == 0) {
+                    finalLabels[root] = ++count;
+                    firstCells[count] = i;
+                }
+                labels[i] = finalLabels[root];
+            }
+        }
+
+        this.componentCount = count;
+        this.firstCells = Arrays.copyOf(firstCells, count + 1);
+        this.areas = new int[count + 1];
+        this.minX = new int[count + 1];
+        this.minY = new int[count + 1];
+        this.maxX = new int[count + 1];
+        this.maxY = new int[count + 1];
+        Arrays.fill(minX, size);
+        Arrays.fill(minY, size);
+        Arrays.fill(maxX, -1);
+        Arrays.fill(maxY, -1);
+        for (int x = 0; x < size; x++) {
+            int row = x * size;
+            for (int y = 0; y < size; y++) {
+                int label = labels[row + y];
+                if (label != 0) {
+                    areas[label]++;
+                    minX[label] = StrictMath.min(minX[label], x);
+                    minY[label] = StrictMath.min(minY[label], y);
+                    maxX[label] = StrictMath.max(maxX[label], x);
+                    maxY[label] = StrictMath.max(maxY[label], y);
+                }
+            }
+        }
+    }
+
+    private static int find(int[] parents, int label) {
+        int root = label;
+        while (parents[root] != root) {
+            root = parents[root];
+        }
+        while (parents[label] != root) {
+            int next = parents[label];
+            parents[label] = root;
+            label = next;
+        }
+        return root;
+    }
+
+    private static int union(int[] parents, int a, int b) {
+        int rootA = find(parents, a);
+        int rootB = find(parents, b);
+        int root = StrictMath.min(rootA, rootB);
+        parents[rootA] = root;
+        parents[rootB] = root;
+        return root;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getComponentCount() {
+        return componentCount;
+    }
+
+    public int[] getLabels() {
+        return labels;
+    }
+
+    public int getLabel(int x, int y) {
+        return labels[x * size + y];
+    }
+
+    public int getFirstX(int label) {
+        return firstCells[label] / size;
+    }
+
+    public int getFirstY(int label) {
+        return firstCells[label] % size;
+    }
+
+    public int getArea(int label) {
+        return areas[label];
+    }
+
+    public int getMinX(int label) {
+        return minX[label];
+    }
+
+    public int getMinY(int label) {
+        return minY[label];
+    }
+
+    public int getMaxX(int label) {
+        return maxX[label];
+    }
+
+    public int getMaxY(int label) {
+        return maxY[label];
+    }
+
+    /**
+     * Hands the labels back to the scratch arena, they must not be read afterwards
+     */
+    public void release() {
+        ScratchArena.release(labels);
+    }
+}
@@ -0,0 +1,127 @@
+package map;
+
+import util.ParallelUtils;
+
+/**
+ * Exact squared euclidean distance from every cell of a mask to the nearest cell holding a given value,
+ * computed in linear time with the separable algorithm of Meijster, Roerdink and Hesselink.
+ * All arithmetic is done on integers so thresholding the field reproduces disk stamping exactly.
+ */
+public strictfp class DistanceField {
+    public static final int UNREACHABLE = Integer.MAX_VALUE;
+    private static final int COLUMN_BLOCK = 16;
+
+    private final int size;
+    private final int[] squaredDistances;
+
+    public DistanceField(BinaryMask mask, boolean value) {
+        this.size = mask.getSize();
+        this.squaredDistances = ScratchArena.borrowInts(size * size);
+        // any real distance is below size, so infinity only has to keep its square clear of 2 * size * size
+        int infinity = 2 * size + 1;
+        int[] columnDistances = ScratchArena.borrowInts(size * size);
+
+        ParallelUtils.forEachRow(size, x -> {
+            int row = x * size;
+            int distance = infinity;
+            for (int y = 0; y < size; y++) {
+                distance = mask.get(x, y) == value ? 0 : StrictMath.min(distance + 1, infinity);
+                columnDistances[row + y] = distance;
+            }
+            distance = infinity;
+            for (int y = size - 1; y >= 0; y--) {
+                distance = columnDistances[row + y] == 0 ? 0 : StrictMath.min(distance + 1, infinity);
+                columnDistances[row + y] = StrictMath.min(columnDistances[row + y], distance);
+            }
+        });
+
+        // the second pass runs along x, blocks of columns are gathered row by row so it never strides through memory
+        int blockCount = (size + COLUMN_BLOCK - 1) / COLUMN_BLOCK;
+        int unreachable = infinity * infinity;
+        ParallelUtils.forEachBand(blockCount, (startBlock, endBlock) -> {
+            int[] column = new int[size];
+            int[] sites = new int[size];
+            int[] starts = new int[size];
+            int[] block = new int[COLUMN_BLOCK * size];
+            for (int blockIndex = startBlock; blockIndex < endBlock; blockIndex++) {
+                int firstY = blockIndex * COLUMN_BLOCK;
+                int width = StrictMath.min(COLUMN_BLOCK, size - firstY);
+                for (int u = 0; u < size; u++) {
+                    for (int i = 0; i < width; i++) {
+                        block[i * size + u] = columnDistances[u * size + firstY + i];
+                    }
+                }
+                for (int i = 0; i < width; i++) {
+                    System.arraycopy(block, i * size, column, 0, size);
+                    int q = 0;
+                    sites[0] = 0;
+                    starts[0] = 0;
+                    for (int u = 1; u < size; u++) {
+                        while (q >= 0 && getEnvelope(starts[q], sites[q], column) > getEnvelope(starts[q], u, column)) {
+                            q--;
+                        }
+                        if (q < 0) {
+                            q = 0;
+                            sites[0] = u;
+                        } else {
+                            int start = 1 + getSeparator(sites[q], u, column);
+                            if (start < size) {
+                                q++;
+                                sites[q] = u;
+                                starts[q] = start;
+                            }
+                        }
+                    }
+                    for (int u = size - 1; u >= 0; u--) {
+                        int squaredDistance = getEnvelope(u, sites[q], column);
+                        block[i * size + u] = squaredDistance >= unreachable ? UNREACHABLE : squaredDistance;
+                        if (u == starts[q]) {
+                            q--;
+                        }
+                    }
+                }
+                for (int u = 0; u < size; u++) {
+                    for (int i = 0; i < width; i++) {
+                        squaredDistances[u * size + firstY + i] = block[i * size + u];
+                    }
+                }
+            }
+        });
+        ScratchArena.release(columnDistances);
+    }
+
+    private static int getEnvelope(int x, int site, int[] column) {
+        int columnDistance = column[site];
+        return (x - site) * (x - site) + columnDistance * columnDistance;
+    }
+
+    private static int getSeparator(int site, int u, int[] column) {
+        int siteDistance = column[site];
+        int uDistance = column[u];
+        return Math.floorDiv(u * u - site * site + uDistance * uDistance - siteDistance * siteDistance, 2 * (u - site));
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getSquaredDistance(int x, int y) {
+        return squaredDistances[x * size + y];
+    }
+
+    public float getDistance(int x, int y) {
+        int squaredDistance = getSquaredDistance(x, y);
+        return squaredDistance == UNREACHABLE ? Float.POSITIVE_INFINITY : (float) StrictMath.sqrt(squaredDistance);
+    }
+
+    public boolean isWithin(int x, int y, float radius) {
+        return getSquaredDistance(x, y) <= radius * radius;
+    }
+
+    /**
+     * Hands the field back to the scratch arena, it must not be read afterwards
+     */
+    public void release() {
+        ScratchArena.release(squaredDistances);
+    }
+}
@@ -4,120 +4,163 @@ import brushes.Brushes;
 import generator.VisualDebugger;
 import lombok.Getter;
 import lombok.SneakyThrows;
+import util.FastHash;
+import util.ParallelUtils;
 import util.Util;
 import util.Vector2f;
 import util.Vector3f;
 
 import java.awt.image.BufferedImage;
-import java.awt.image.Raster;
-import java.io.BufferedOutputStream;
-import java.io.DataOutputStream;
-import java.io.FileOutputStream;
+import java.io.*;
 import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.LinkedHashSet;
-import java.util.LinkedList;
+import java.util.List;
 import java.util.Random;
-import java.util.concurrent.atomic.AtomicReference;
 
-import static brushes.Brushes.loadBrush;
+import static brushes.Brushes.getScaledBrush;
 
 @Getter
 public strictfp class FloatMask extends Mask {
-    private final Random random;
-    private float[][] mask;
+    private Random random;
+    private int size;
+    // flat storage, the value at (x, y) lives at x * size + y so the inner y loops walk contiguous memory
+    private float[] mask;
 
     public FloatMask(int size, Long seed, SymmetryHierarchy symmetryHierarchy) {
-        this.mask = new float[size][size];
+        this.size = size;
+        this.mask = ScratchArena.borrowFloats(size * size);
         if (seed != null) {
             this.random = new Random(seed);
         } else {
             this.random = null;
         }
         this.symmetryHierarchy = symmetryHierarchy;
-        for (int y = 0; y < this.getSize(); y++) {
-            for (int x = 0; x < this.getSize(); x++) {
-                this.mask[x][y] = 0f;
-            }
-        }
         VisualDebugger.visualizeMask(this);
     }
 
     public FloatMask(BufferedImage image, Long seed, SymmetryHierarchy symmetryHierarchy) {
-        this.mask = new float[image.getWidth()][image.getHeight()];
+        this.size = image.getHeight();
+        this.mask = ScratchArena.borrowFloats(size * size);
         if (seed != null) {
             this.random = new Random(seed);
         } else {
             this.random = null;
         }
-        Raster imageData = image.getData();
         this.symmetryHierarchy = symmetryHierarchy;
-        for (int y = 0; y < this.getSize(); y++) {
-            for (int x = 0; x < this.getSize(); x++) {
-                int[] vals = new int[1];
-                imageData.getPixel(x, y, vals);
-                this.mask[x][y] = vals[0] / 255f;
+        // first band of the whole raster in one read, row by row in the image, so y is the outer index here
+        int[] samples = image.getRaster().getSamples(0, 0, size, size, 0, (int[]) null);
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                this.mask[x * size + y] = samples[y * size + x] / 255f;
             }
         }
         VisualDebugger.visualizeMask(this);
     }
 
     public FloatMask(FloatMask mask, Long seed) {
-        this.mask = new float[mask.getSize()][mask.getSize()];
+        this(mask, seed, mask.getSymmetryHierarchy());
+    }
+
+    /**
+     * Copy of mask whose symmetric operations follow symmetryHierarchy instead of the one of mask
+     */
+    public FloatMask(FloatMask mask, Long seed, SymmetryHierarchy symmetryHierarchy) {
+        this.size = mask.getSize();
+        this.mask = ScratchArena.copyOf(mask.mask);
         if (seed != null) {
             this.random = new Random(seed);
         } else {
             this.random = null;
         }
-        this.symmetryHierarchy = mask.getSymmetryHierarchy();
-        for (int y = 0; y < mask.getSize(); y++) {
-            for (int x = 0; x < mask.getSize(); x++) {
-                this.mask[x][y] = mask.get(x, y);
-            }
-        }
+        this.symmetryHierarchy = symmetryHierarchy;
         VisualDebugger.visualizeMask(this);
     }
 
+    private FloatMask(float[] values, int size, SymmetryHierarchy symmetryHierarchy, Long seed) {
+        this.size = size;
+        this.mask = values;
+        this.symmetryHierarchy = symmetryHierarchy;
+        if (seed != null) {
+            this.random = new Random(seed);
+        } else {
+            this.random = null;
+        }
+    }
+
     public int getSize() {
-        return mask[0].length;
+        return size;
+    }
+
+    /**
+     * Replaces the storage with values, the previous values go back to the scratch arena
+     */
+    private void setMask(float[] values, int size) {
+        ScratchArena.release(this.mask);
+        this.mask = values;
+        this.size = size;
+    }
+
+    /**
+     * Read only view of the current values that shares their storage instead of copying it
+     */
+    FloatMask getSharedView(Long seed) {
+        return new FloatMask(mask, size, symmetryHierarchy, seed);
+    }
+
+    /**
+     * Moves this mask onto a private copy of its storage, leaving the old storage to the views sharing it
+     */
+    void unshare() {
+        this.mask = ScratchArena.copyOf(mask);
+    }
+
+    /**
+     * Hands the storage back to the scratch arena once no view or owner uses it anymore
+     */
+    void releaseStorage() {
+        ScratchArena.release(mask);
+        this.mask = null;
+    }
+
+    boolean isReleased() {
+        return mask == null;
     }
 
     public float get(Vector2f pos) {
-        return mask[(int) pos.x][(int) pos.y];
+        return get((int) pos.x, (int) pos.y);
     }
 
     public float get(int x, int y) {
-        return mask[x][y];
+        return mask[x * size + y];
     }
 
     public float getMin() {
         float val = Float.MAX_VALUE;
-        for (int y = 0; y < getSize(); y++) {
-            for (int x = 0; x < getSize(); x++) {
-                val = StrictMath.min(val, get(x, y));
-            }
+        for (float value : mask) {
+            val = StrictMath.min(val, value);
         }
         return val;
     }
 
     public float getMax() {
         float val = 0;
-        for (int y = 0; y < getSize(); y++) {
-            for (int x = 0; x < getSize(); x++) {
-                val = StrictMath.max(val, get(x, y));
-            }
+        for (float value : mask) {
+            val = StrictMath.max(val, value);
         }
         return val;
     }
 
     public float getSum() {
+        // summation order is kept column by column so the rounding of the result does not change
         float val = 0;
-        for (int y = 0; y < getSize(); y++) {
-            for (int x = 0; x < getSize(); x++) {
-                val += get(x, y);
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                val += mask[x * size + y];
             }
         }
         return val;
@@ -136,15 +179,15 @@ public strictfp class FloatMask extends Mask {
     }
 
     public void set(int x, int y, float value) {
-        mask[x][y] = value;
+        mask[x * size + y] = value;
     }
 
     public void add(int x, int y, float value) {
-        mask[x][y] += value;
+        mask[x * size + y] += value;
     }
 
     public void multiply(int x, int y, float value) {
-        mask[x][y] *= value;
+        mask[x * size + y] *= value;
     }
 
     public FloatMask init(BinaryMask other, float low, float high) {
@@ -155,15 +198,13 @@ public strictfp class FloatMask extends Mask {
         if (other.getSize() > size) {
             other = other.copy().shrink(size);
         }
-        for (int y = 0; y < getSize(); y++) {
-            for (int x = 0; x < getSize(); x++) {
-                if (other.get(x, y)) {
-                    set(x, y, high);
-                } else {
-                    set(x, y, low);
-                }
+        BinaryMask source = other;
+        ParallelUtils.forEachRow(size, x -> {
+            int row = x * size;
+            for (int y = 0; y < size; y++) {
+                mask[row + y] = source.get(x, y) ? high : low;
             }
-        }
+        });
         VisualDebugger.visualizeMask(this);
         return this;
     }
@@ -177,30 +218,26 @@ public strictfp class FloatMask extends Mask {
     }
 
     public FloatMask multiply(FloatMask other) {
-        for (int y = 0; y < getSize(); y++) {
-            for (int x = 0; x < getSize(); x++) {
-                multiply(x, y, other.get(x, y));
-            }
+        float[] otherMask = other.mask;
+        for (int i = 0; i < mask.length; i++) {
+            mask[i] *= otherMask[i];
         }
         VisualDebugger.visualizeMask(this);
         return this;
     }
 
     public FloatMask multiply(float val) {
-        for (int y = 0; y < getSize(); y++) {
-            for (int x = 0; x < getSize(); x++) {
-                multiply(x, y, val);
-            }
+        for (int i = 0; i < mask.length; i++) {
+            mask[i] *= val;
         }
         VisualDebugger.visualizeMask(this);
         return this;
     }
 
     public FloatMask add(FloatMask other) {
-        for (int y = 0; y < getSize(); y++) {
-            for (int x = 0; x < getSize(); x++) {
-                add(x, y, other.get(x, y));
-            }
+        float[] otherMask = other.mask;
+        for (int i = 0; i < mask.length; i++) {
+            mask[i] += otherMask[i];
         }
         VisualDebugger.visualizeMask(this);
         return this;
@@ -221,19 +258,42 @@ public strictfp class FloatMask extends Mask {
     }
 
     public FloatMask add(FloatMask other, int offsetX, int offsetY) {
-        for (int y = 0; y < other.getSize(); y++) {
-            for (int x = 0; x < other.getSize(); x++) {
-                int shiftX = x - other.getSize() / 2 + offsetX;
-                int shiftY = y - other.getSize() / 2 + offsetY;
-                if (inBounds(shiftX, shiftY)) {
-                    add(shiftX, shiftY, other.get(x, y));
-                }
-            }
-        }
+        return add(other, offsetX, offsetY, 1f);
+    }
+
+    public FloatMask add(FloatMask other, Vector2f loc, float multiplier) {
+        return add(other, (int) loc.x, (int) loc.y, multiplier);
+    }
+
+    /**
+     * Adds the values of other times multiplier, with other centered on the offset. Other is only read, so it can be
+     * a shared brush.
+     */
+    public FloatMask add(FloatMask other, int offsetX, int offsetY, float multiplier) {
+        addRows(other, offsetX, offsetY, multiplier, 0, size);
         VisualDebugger.visualizeMask(this);
         return this;
     }
 
+    /**
+     * Adds the part of other that falls on the rows from startRow up to endRow
+     */
+    private void addRows(FloatMask other, int offsetX, int offsetY, float multiplier, int startRow, int endRow) {
+        int otherSize = other.getSize();
+        float[] otherMask = other.mask;
+        int xStart = StrictMath.max(0, startRow + otherSize / 2 - offsetX);
+        int xEnd = StrictMath.min(otherSize, endRow + otherSize / 2 - offsetX);
+        int yStart = StrictMath.max(0, otherSize / 2 - offsetY);
+        int yEnd = StrictMath.min(otherSize, size + otherSize / 2 - offsetY);
+        for (int x = xStart; x < xEnd; x++) {
+            int row = (x - otherSize / 2 + offsetX) * size - otherSize / 2 + offsetY;
+            int otherRow = x * otherSize;
+            for (int y = yStart; y < yEnd; y++) {
+                mask[row + y] += otherMask[otherRow + y] * multiplier;
+            }
+        }
+    }
+
     public FloatMask subtract(FloatMask other, int offsetX, int offsetY) {
         return add(other.copy().multiply(-1f), offsetX, offsetY);
     }
@@ -255,47 +315,41 @@ public strictfp class FloatMask extends Mask {
     }
 
     public FloatMask min(FloatMask other) {
-        for (int y = 0; y < getSize(); y++) {
-            for (int x = 0; x < getSize(); x++) {
-                set(x, y, StrictMath.min(get(x, y), other.get(x, y)));
-            }
+        float[] otherMask = other.mask;
+        for (int i = 0; i < mask.length; i++) {
+            mask[i] = StrictMath.min(mask[i], otherMask[i]);
         }
         VisualDebugger.visualizeMask(this);
         return this;
     }
 
     public FloatMask clampMin(float val) {
-        for (int y = 0; y < getSize(); y++) {
-            for (int x = 0; x < getSize(); x++) {
-                set(x, y, StrictMath.max(get(x, y), val));
-            }
+        for (int i = 0; i < mask.length; i++) {
+            mask[i] = StrictMath.max(mask[i], val);
         }
         VisualDebugger.visualizeMask(this);
         return this;
     }
 
     public FloatMask max(FloatMask other) {
-        for (int y = 0; y < getSize(); y++) {
-            for (int x = 0; x < getSize(); x++) {
-                set(x, y, StrictMath.max(get(x, y), other.get(x, y)));
-            }
+        float[] otherMask = other.mask;
+        for (int i = 0; i < mask.length; i++) {
+            mask[i] = StrictMath.max(mask[i], otherMask[i]);
         }
         VisualDebugger.visualizeMask(this);
         return this;
     }
 
     public FloatMask clampMax(float val) {
-        for (int y = 0; y < getSize(); y++) {
-            for (int x = 0; x < getSize(); x++) {
-                set(x, y, StrictMath.min(get(x, y), val));
-            }
+        for (int i = 0; i < mask.length; i++) {
+            mask[i] = StrictMath.min(mask[i], val);
         }
         VisualDebugger.visualizeMask(this);
         return this;
     }
 
     public FloatMask shrink(int size) {
-        float[][] smallMask = new float[size][size];
+        float[] smallMask = ScratchArena.borrowFloats(size * size);
         int largeX;
         int largeY;
         for (int x = 0; x < size; x++) {
@@ -306,10 +360,10 @@ public strictfp class FloatMask extends Mask {
                 largeY = (y * getSize()) / size + (getSize() / size / 2);
                 if (largeY >= getSize())
                     largeY = getSize() - 1;
-                smallMask[x][y] = get(largeX, largeY);
+                smallMask[x * size + y] = get(largeX, largeY);
             }
         }
-        mask = smallMask;
+        setMask(smallMask, size);
         VisualDebugger.visualizeMask(this);
         applySymmetry(symmetryHierarchy.getTeamSymmetry());
         return this;
@@ -323,21 +377,10 @@ public strictfp class FloatMask extends Mask {
         if (other.getSize() > size) {
             other = other.copy().shrink(size);
         }
-        FloatMask brush = loadBrush(Brushes.HILL_BRUSHES[random.nextInt(Brushes.HILL_BRUSHES.length)], symmetryHierarchy);
+        String brushName = Brushes.HILL_BRUSHES[random.nextInt(Brushes.HILL_BRUSHES.length)];
         BinaryMask otherCopy = other.copy().fillHalf(false);
-        LinkedHashSet<Vector2f> extents = other.copy().outline().fillHalf(false).getAllCoordinatesEqualTo(true, 1);
-        LinkedList<Vector2f> coordinates = new LinkedList<>(otherCopy.getRandomCoordinates(4));
-        while (coordinates.size() > 0) {
-            Vector2f loc = coordinates.removeFirst();
-            AtomicReference<Float> distance = new AtomicReference<>(Float.MAX_VALUE);
-            extents.forEach(eloc -> distance.set(StrictMath.min(distance.get(), loc.getDistance(eloc))));
-            if (distance.get() > 1) {
-                FloatMask useBrush = brush.copy().shrink(distance.get().intValue() * 4).multiply(distance.get() / 2);
-                add(useBrush, loc);
-                add(useBrush, getSymmetryPoint(loc));
-                coordinates.removeIf(cloc -> loc.getDistance(cloc) < distance.get());
-            }
-        }
+        BinaryMask extents = other.copy().outline().fillHalf(false);
+        stampBrushes(brushName, false, 2f, otherCopy, extents);
         VisualDebugger.visualizeMask(this);
         return this;
     }
@@ -350,26 +393,69 @@ public strictfp class FloatMask extends Mask {
         if (other.getSize() > size) {
             other = other.copy().shrink(size);
         }
-        FloatMask brush = loadBrush(Brushes.MOUNTAIN_BRUSHES[random.nextInt(Brushes.MOUNTAIN_BRUSHES.length)], symmetryHierarchy);
-        brush.multiply(1 / brush.getMax());
+        String brushName = Brushes.MOUNTAIN_BRUSHES[random.nextInt(Brushes.MOUNTAIN_BRUSHES.length)];
         BinaryMask otherCopy = other.copy().fillHalf(false);
-        LinkedHashSet<Vector2f> extents = other.copy().outline().fillHalf(false).getAllCoordinatesEqualTo(true, 1);
-        LinkedList<Vector2f> coordinates = new LinkedList<>(otherCopy.getRandomCoordinates(4));
-        while (coordinates.size() > 0) {
-            Vector2f loc = coordinates.removeFirst();
-            AtomicReference<Float> distance = new AtomicReference<>(Float.MAX_VALUE);
-            extents.forEach(eloc -> distance.set(StrictMath.min(distance.get(), loc.getDistance(eloc))));
-            if (distance.get() > 1) {
-                FloatMask useBrush = brush.copy().shrink(distance.get().intValue() * 4).multiply(distance.get());
-                add(useBrush, loc);
-                add(useBrush, getSymmetryPoint(loc));
-                coordinates.removeIf(cloc -> loc.getDistance(cloc) < distance.get());
-            }
-        }
+        BinaryMask extents = other.copy().outline().fillHalf(false);
+        stampBrushes(brushName, true, 1f, otherCopy, extents);
         VisualDebugger.visualizeMask(this);
         return this;
     }
 
+    /**
+     * Stamps the brush on random locations of the cells of locations, in their random order, and on their symmetry
+     * points. A location is stamped if it is more than one cell from the nearest cell of extents, with the brush
+     * four times as wide as that distance and scaled by the distance divided by amplitudeDivisor, and the locations
+     * closer to it than the distance are dropped.
+     * <p>
+     * Distances are read from the distance field of extents and dropping goes through the buckets of a disk sampler,
+     * so choosing the stamps no longer compares every location with every extent. The chosen stamps are then added in
+     * parallel bands of rows, each band adding all stamps in order, so every cell sums them in the same order.
+     */
+    private void stampBrushes(String brushName, boolean normalized, float amplitudeDivisor, BinaryMask locations, BinaryMask extents) {
+        LinkedHashSet<Vector2f> coordinates = locations.getRandomCoordinates(4);
+        int[] cells = new int[coordinates.size()];
+        int count = 0;
+        for (Vector2f coordinate : coordinates) {
+            cells[count++] = (int) coordinate.x * size + (int) coordinate.y;
+        }
+        DistanceField extentDistances = new DistanceField(extents, true);
+        PoissonDiskSampler sampler = new PoissonDiskSampler(size, cells, 4);
+        List<BrushStamp> stamps = new ArrayList<>();
+        while (sampler.getRemainingCount() > 0) {
+            int cell = sampler.take(0);
+            Vector2f loc = new Vector2f(cell / size, cell % size);
+            float distance = extentDistances.getSquaredDistance(cell / size, cell % size) == DistanceField.UNREACHABLE
+                    ? Float.MAX_VALUE : extentDistances.getDistance(cell / size, cell % size);
+            if (distance > 1) {
+                FloatMask brush = getScaledBrush(brushName, normalized, (int) distance * 4, symmetryHierarchy);
+                Vector2f symmetryPoint = getSymmetryPoint(loc);
+                stamps.add(new BrushStamp(brush, (int) loc.x, (int) loc.y, distance / amplitudeDivisor));
+                stamps.add(new BrushStamp(brush, (int) symmetryPoint.x, (int) symmetryPoint.y, distance / amplitudeDivisor));
+                sampler.exclude(loc.x, loc.y, distance);
+            }
+        }
+        extentDistances.release();
+        ParallelUtils.forEachBand(size, (start, end) -> {
+            for (BrushStamp stamp : stamps) {
+                addRows(stamp.brush, stamp.x, stamp.y, stamp.multiplier, start, end);
+            }
+        });
+    }
+
+    private static class BrushStamp {
+        private final FloatMask brush;
+        private final int x;
+        private final int y;
+        private final float multiplier;
+
+        private BrushStamp(FloatMask brush, int x, int y, float multiplier) {
+            this.brush = brush;
+            this.x = x;
+            this.y = y;
+            this.multiplier = multiplier;
+        }
+    }
+
     public FloatMask maskToHeightmap(float underWaterSlope, int maxRepeat, BinaryMask other) {
         other = other.copy().invert();
         int size = getSize();
@@ -389,94 +475,59 @@ public strictfp class FloatMask extends Mask {
     }
 
     public FloatMask smooth(int radius) {
-        int[][] innerCount = new int[getSize()][getSize()];
-
-        for (int x = 0; x < getSize(); x++) {
-            for (int y = 0; y < getSize(); y++) {
-                float val = get(x, y);
-                innerCount[x][y] = StrictMath.round(val * 1000);
-                innerCount[x][y] += x > 0 ? innerCount[x - 1][y] : 0;
-                innerCount[x][y] += y > 0 ? innerCount[x][y - 1] : 0;
-                innerCount[x][y] -= x > 0 && y > 0 ? innerCount[x - 1][y - 1] : 0;
-            }
-        }
-
-        for (int x = 0; x < getSize(); x++) {
-            for (int y = 0; y < getSize(); y++) {
-                int xLeft = StrictMath.max(0, x - radius);
-                int xRight = StrictMath.min(getSize() - 1, x + radius);
-                int yUp = StrictMath.max(0, y - radius);
-                int yDown = StrictMath.min(getSize() - 1, y + radius);
-                int countA = xLeft > 0 && yUp > 0 ? innerCount[xLeft - 1][yUp - 1] : 0;
-                int countB = yUp > 0 ? innerCount[xRight][yUp - 1] : 0;
-                int countC = xLeft > 0 ? innerCount[xLeft - 1][yDown] : 0;
-                int countD = innerCount[xRight][yDown];
-                int count = countD + countA - countB - countC;
-                int area = (xRight - xLeft + 1) * (yDown - yUp + 1);
-                set(x, y, count / 1000f / area);
-            }
-        }
-
-        VisualDebugger.visualizeMask(this);
-        return this;
+        return smooth(radius, null, null);
     }
 
     public FloatMask smooth(int radius, BinaryMask limiter) {
         limiter = limiter.copy();
-        int size = getSize();
         if (limiter.getSize() < size)
             limiter = limiter.copy().enlarge(size);
         if (limiter.getSize() > size) {
             limiter = limiter.copy().shrink(size);
         }
-        int[][] innerCount = new int[getSize()][getSize()];
-
-        for (int x = 0; x < getSize(); x++) {
-            for (int y = 0; y < getSize(); y++) {
-                float val = get(x, y);
-                innerCount[x][y] = StrictMath.round(val * 1000);
-                innerCount[x][y] += x > 0 ? innerCount[x - 1][y] : 0;
-                innerCount[x][y] += y > 0 ? innerCount[x][y - 1] : 0;
-                innerCount[x][y] -= x > 0 && y > 0 ? innerCount[x - 1][y - 1] : 0;
-            }
+        boolean[] limitedRows = new boolean[size];
+        for (int x = 0; x < size; x++) {
+            limitedRows[x] = !limiter.isRowEmpty(x);
         }
+        return smooth(radius, limitedRows, limiter);
+    }
 
-        for (int x = 0; x < getSize(); x++) {
-            for (int y = 0; y < getSize(); y++) {
-                if (limiter.get(x, y)) {
-                    int xLeft = StrictMath.max(0, x - radius);
-                    int xRight = StrictMath.min(getSize() - 1, x + radius);
-                    int yUp = StrictMath.max(0, y - radius);
-                    int yDown = StrictMath.min(getSize() - 1, y + radius);
-                    int countA = xLeft > 0 && yUp > 0 ? innerCount[xLeft - 1][yUp - 1] : 0;
-                    int countB = yUp > 0 ? innerCount[xRight][yUp - 1] : 0;
-                    int countC = xLeft > 0 ? innerCount[xLeft - 1][yDown] : 0;
-                    int countD = innerCount[xRight][yDown];
-                    int count = countD + countA - countB - countC;
-                    int area = (xRight - xLeft + 1) * (yDown - yUp + 1);
-                    set(x, y, count / 1000f / area);
+    private FloatMask smooth(int radius, boolean[] limitedRows, BinaryMask limiter) {
+        BoxFilter.filter(size, radius, limitedRows, (x, values) -> {
+            int row = x * size;
+            for (int y = 0; y < size; y++) {
+                values[y] = StrictMath.round(mask[row + y] * 1000);
+            }
+        }, (x, sums) -> {
+            int row = x * size;
+            int xLength = BoxFilter.getWindowLength(x, radius, size);
+            for (int y = 0; y < size; y++) {
+                if (limiter == null || limiter.get(x, y)) {
+                    int area = xLength * BoxFilter.getWindowLength(y, radius, size);
+                    mask[row + y] = sums[y] / 1000f / area;
                 }
             }
-        }
+        });
 
         VisualDebugger.visualizeMask(this);
         return this;
     }
 
     public FloatMask gradient() {
-        float[][] maskCopy = new float[getSize()][getSize()];
-        for (int x = 0; x < getSize(); x++) {
-            for (int y = 0; y < getSize(); y++) {
-                int xNeg = StrictMath.max(0, x - 1);
-                int xPos = StrictMath.min(getSize() - 1, x + 1);
+        float[] maskCopy = ScratchArena.borrowFloats(size * size);
+        ParallelUtils.forEachRow(size, x -> {
+            int row = x * size;
+            int rowNeg = StrictMath.max(0, x - 1) * size;
+            int rowPos = StrictMath.min(size - 1, x + 1) * size;
+            for (int y = 0; y < size; y++) {
                 int yNeg = StrictMath.max(0, y - 1);
-                int yPos = StrictMath.min(getSize() - 1, y + 1);
-                float xSlope = get(xPos, y) - get(xNeg, y);
-                float ySlope = get(x, yPos) - get(x, yNeg);
-                maskCopy[x][y] = (float) StrictMath.sqrt(xSlope * xSlope + ySlope * ySlope);
+                int yPos = StrictMath.min(size - 1, y + 1);
+                float xSlope = mask[rowPos + y] - mask[rowNeg + y];
+                float ySlope = mask[row + yPos] - mask[row + yNeg];
+                maskCopy[row + y] = (float) StrictMath.sqrt(xSlope * xSlope + ySlope * ySlope);
             }
-        }
-        mask = maskCopy;
+        });
+        setMask(maskCopy, size);
         VisualDebugger.visualizeMask(this);
         return this;
     }
@@ -494,29 +545,15 @@ public strictfp class FloatMask extends Mask {
     }
 
     public void applySymmetry(Symmetry symmetry, boolean reverse) {
-        switch (symmetry) {
-            case QUAD, DIAG -> {
-                for (int x = getMinXBound(symmetry); x < getMaxXBound(symmetry); x++) {
-                    for (int y = getMinYBound(x, symmetry); y < getMaxYBound(x, symmetry); y++) {
-                        Vector2f[] symPoints = getTerrainSymmetryPoints(x, y, symmetry);
-                        for (Vector2f symPoint : symPoints) {
-                            set(symPoint, get(x, y));
-                        }
-                    }
-                }
-            }
-            default -> {
-                for (int x = getMinXBound(symmetry); x < getMaxXBound(symmetry); x++) {
-                    for (int y = getMinYBound(x, symmetry); y < getMaxYBound(x, symmetry); y++) {
-                        Vector2f symPoint = getSymmetryPoint(x, y, symmetry);
-                        if (reverse) {
-                            set(x, y, get(symPoint));
-                        } else {
-                            set(symPoint, get(x, y));
-                        }
-                    }
-                }
-            }
+        SymmetryTable table = SymmetryTable.getMirrorTable(this, symmetry, reverse);
+        int[] targets = table.getTargets();
+        int[] sources = table.getSources();
+        float[] values = table.isOverlapping() ? ScratchArena.copyOf(mask) : mask;
+        for (int i = 0; i < targets.length; i++) {
+            mask[targets[i]] = values[sources[i]];
+        }
+        if (values != mask) {
+            ScratchArena.release(values);
         }
     }
     // -------------------------------------------
@@ -528,21 +565,38 @@ public strictfp class FloatMask extends Mask {
         }
         DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path.toFile())));
 
-        for (int x = 0; x < getSize(); x++) {
-            for (int y = 0; y < getSize(); y++) {
-                out.writeFloat(get(x, y));
-            }
+        for (float value : mask) {
+            out.writeFloat(value);
         }
 
         out.close();
     }
 
+    /**
+     * Writes the size, random state and storage of the mask, {@link #readState} restores all of them
+     */
+    void writeState(DataOutputStream out) throws IOException {
+        MaskStates.writeHeader(out, MaskStates.FLOAT, size, random);
+        for (float value : mask) {
+            out.writeFloat(value);
+        }
+    }
+
+    void readState(DataInputStream in) throws IOException {
+        MaskStates.checkType(in, MaskStates.FLOAT);
+        int size = in.readInt();
+        random = MaskStates.readRandom(in);
+        float[] values = ScratchArena.borrowFloats(size * size);
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readFloat();
+        }
+        setMask(values, size);
+    }
+
     public String toHash() throws NoSuchAlgorithmException {
         ByteBuffer bytes = ByteBuffer.allocate(getSize() * getSize() * 4);
-        for (int x = getMinXBound(symmetryHierarchy.getSpawnSymmetry()); x < getMaxXBound(symmetryHierarchy.getSpawnSymmetry()); x++) {
-            for (int y = getMinYBound(x, symmetryHierarchy.getSpawnSymmetry()); y < getMaxYBound(x, symmetryHierarchy.getSpawnSymmetry()); y++) {
-                bytes.putFloat(get(x, y));
-            }
+        for (int cell : SymmetryTable.getHalfCells(this, symmetryHierarchy.getSpawnSymmetry())) {
+            bytes.putFloat(mask[cell]);
         }
         byte[] data = MessageDigest.getInstance("MD5").digest(bytes.array());
         StringBuilder stringBuilder = new StringBuilder();
@@ -552,6 +606,13 @@ public strictfp class FloatMask extends Mask {
         return stringBuilder.toString();
     }
 
+    /**
+     * Hash of the raw storage, much cheaper than {@link #toHash()} but not comparable to it
+     */
+    public String toFastHash() {
+        return FastHash.toHex(FastHash.hash(mask));
+    }
+
     public void show() {
         VisualDebugger.visualizeMask(this);
     }
@@ -0,0 +1,52 @@
+package map;
+
+import java.io.*;
+import java.util.Random;
+
+/**
+ * Helpers of the binary mask state format used by the mask cache. A state is a type tag, the mask size, the state of
+ * the mask's random so later operations draw the same values, and the raw storage.
+ */
+strictfp class MaskStates {
+    static final byte BINARY = 'B';
+    static final byte FLOAT = 'F';
+    // cache files are read back from disk, so they may only hold the state of a random and nothing else
+    private static final ObjectInputFilter RANDOM_FILTER = ObjectInputFilter.Config.createFilter("java.util.Random;!*");
+
+    static void writeHeader(DataOutputStream out, byte type, int size, Random random) throws IOException {
+        out.writeByte(type);
+        out.writeInt(size);
+        if (random == null) {
+            out.writeShort(-1);
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream objectOut = new ObjectOutputStream(bytes);
+        objectOut.writeObject(random);
+        objectOut.close();
+        out.writeShort(bytes.size());
+        bytes.writeTo(out);
+    }
+
+    static void checkType(DataInputStream in, byte type) throws IOException {
+        byte storedType = in.readByte();
+        if (storedType != type) {
+            throw new IOException(String.format("Stored mask is of type %c, expected %c", storedType, type));
+        }
+    }
+
+    static Random readRandom(DataInputStream in) throws IOException {
+        int length = in.readShort();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        try (ObjectInputStream objectIn = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            objectIn.setObjectInputFilter(RANDOM_FILTER);
+            return (Random) objectIn.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package map;
+
+import java.util.Arrays;
+
+/**
+ * Dart throwing over a fixed, ordered list of candidate cells. Candidates are bucketed in a uniform grid with
+ * cells as wide as the exclusion radius, so removing everything closer than the radius to a chosen point only
+ * touches the neighbouring buckets, and a Fenwick tree over the candidate order finds the k-th remaining candidate.
+ * Every candidate is removed at most once, which keeps a full sampling run near linear in the candidate count.
+ */
+public strictfp class PoissonDiskSampler {
+    private final int size;
+    private final float radius;
+    private final int[] candidates;
+    private final boolean[] removed;
+    private final int[] fenwick;
+    private final int gridCellSize;
+    private final int gridSize;
+    private final int[] bucketHeads;
+    private final int[] bucketNext;
+    private int remainingCount;
+
+    /**
+     * @param candidates cells as x * size + y, in the order they should be offered
+     */
+    public PoissonDiskSampler(int size, int[] candidates, float radius) {
+        this.size = size;
+        this.radius = radius;
+        this.candidates = candidates;
+        this.removed = new boolean[candidates.length];
+        this.remainingCount = candidates.length;
+        this.gridCellSize = StrictMath.max(1, (int) StrictMath.ceil(radius));
+        this.gridSize = (size + gridCellSize - 1) / gridCellSize;
+        this.bucketHeads = new int[gridSize * gridSize];
+        this.bucketNext = new int[candidates.length];
+        this.fenwick = new int[candidates.length + 1];
+
+        Arrays.fill(bucketHeads, -1);
+        for (int i = candidates.length - 1; i >= 0; i--) {
+            int bucket = getBucket(candidates[i] / size, candidates[i] % size);
+            bucketNext[i] = bucketHeads[bucket];
+            bucketHeads[bucket] = i;
+        }
+        for (int i = 1; i <= candidates.length; i++) {
+            fenwick[i]++;
+            int parent = i + (i & -i);
+            if (parent <= candidates.length) {
+                fenwick[parent] += fenwick[i];
+            }
+        }
+    }
+
+    private int getBucket(int x, int y) {
+        return (x / gridCellSize) * gridSize + y / gridCellSize;
+    }
+
+    public int getRemainingCount() {
+        return remainingCount;
+    }
+
+    /**
+     * Removes and returns the k-th remaining candidate, counted in candidate order from zero
+     */
+    public int take(int k) {
+        int position = 0;
+        int step = Integer.highestOneBit(StrictMath.max(1, candidates.length));
+        for (; step > 0; step >>= 1) {
+            int next = position + step;
+            if (next <= candidates.length && fenwick[next] <= k) {
+                position = next;
+                k -= fenwick[next];
+            }
+        }
+        remove(position);
+        return candidates[position];
+    }
+
+    /**
+     * Removes every remaining candidate closer than the radius to the given point
+     */
+    public void exclude(float x, float y) {
+        exclude(x, y, radius);
+    }
+
+    /**
+     * Removes every remaining candidate closer than radius to the given point, the radius of the sampler only sets
+     * the bucket size then
+     */
+    public void exclude(float x, float y, float radius) {
+        int minBucketX = StrictMath.max(0, (int) StrictMath.floor((x - radius) / gridCellSize));
+        int maxBucketX = StrictMath.min(gridSize - 1, (int) StrictMath.floor((x + radius) / gridCellSize));
+        int minBucketY = StrictMath.max(0, (int) StrictMath.floor((y - radius) / gridCellSize));
+        int maxBucketY = StrictMath.min(gridSize - 1, (int) StrictMath.floor((y + radius) / gridCellSize));
+        for (int bucketX = minBucketX; bucketX <= maxBucketX; bucketX++) {
+            for (int bucketY = minBucketY; bucketY <= maxBucketY; bucketY++) {
+                int bucket = bucketX * gridSize + bucketY;
+                int previous = -1;
+                int i = bucketHeads[bucket];
+                while (i != -1) {
+                    int next = bucketNext[i];
+                    float dx = x - candidates[i] / size;
+                    float dy = y - candidates[i] % size;
+                    if (!removed[i] && (float) StrictMath.sqrt(dx * dx + dy * dy) < radius) {
+                        remove(i);
+                    }
+                    if (removed[i]) {
+                        if (previous == -1) {
+                            bucketHeads[bucket] = next;
+                        } else {
+                            bucketNext[previous] = next;
+                        }
+                    } else {
+                        previous = i;
+                    }
+                    i = next;
+                }
+            }
+        }
+    }
+
+    private void remove(int i) {
+        if (removed[i]) {
+            return;
+        }
+        removed[i] = true;
+        remainingCount--;
+        for (int j = i + 1; j <= candidates.length; j += j & -j) {
+            fenwick[j]--;
+        }
+    }
+}
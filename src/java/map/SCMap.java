@@ -3,6 +3,7 @@ package map;
 import biomes.Biome;
 import lombok.Data;
 import lombok.SneakyThrows;
+import util.ParallelUtils;
 import util.Vector2f;
 import util.Vector3f;
 
@@ -380,27 +381,27 @@ public strictfp class SCMap {
     }
 
     public void setTextureMasksLow(FloatMask mask0, FloatMask mask1, FloatMask mask2, FloatMask mask3) {
-        for (int y = 0; y < size / 2; y++) {
-            for (int x = 0; x < size / 2; x++) {
-                int val0 = mask0.get(x, y) > 0f ? StrictMath.round(StrictMath.min(1f, mask0.get(x, y)) * 127 + 128) : 0;
-                int val1 = mask1.get(x, y) > 0f ? StrictMath.round(StrictMath.min(1f, mask1.get(x, y)) * 127 + 128) : 0;
-                int val2 = mask2.get(x, y) > 0f ? StrictMath.round(StrictMath.min(1f, mask2.get(x, y)) * 127 + 128) : 0;
-                int val3 = mask3.get(x, y) > 0f ? StrictMath.round(StrictMath.min(1f, mask3.get(x, y)) * 127 + 128) : 0;
-                textureMasksLow.getRaster().setPixel(x, y, new int[]{val0, val1, val2, val3});
-            }
-        }
+        textureMasksLow.getRaster().setPixels(0, 0, size / 2, size / 2, getTexturePixels(mask0, mask1, mask2, mask3));
     }
 
     public void setTextureMasksHigh(FloatMask mask0, FloatMask mask1, FloatMask mask2, FloatMask mask3) {
-        for (int y = 0; y < size / 2; y++) {
-            for (int x = 0; x < size / 2; x++) {
-                int val0 = mask0.get(x, y) > 0f ? StrictMath.round(StrictMath.min(1f, mask0.get(x, y)) * 127 + 128) : 0;
-                int val1 = mask1.get(x, y) > 0f ? StrictMath.round(StrictMath.min(1f, mask1.get(x, y)) * 127 + 128) : 0;
-                int val2 = mask2.get(x, y) > 0f ? StrictMath.round(StrictMath.min(1f, mask2.get(x, y)) * 127 + 128) : 0;
-                int val3 = mask3.get(x, y) > 0f ? StrictMath.round(StrictMath.min(1f, mask3.get(x, y)) * 127 + 128) : 0;
-                textureMasksHigh.getRaster().setPixel(x, y, new int[]{val0, val1, val2, val3});
+        textureMasksHigh.getRaster().setPixels(0, 0, size / 2, size / 2, getTexturePixels(mask0, mask1, mask2, mask3));
+    }
+
+    private int[] getTexturePixels(FloatMask mask0, FloatMask mask1, FloatMask mask2, FloatMask mask3) {
+        int textureSize = size / 2;
+        FloatMask[] masks = new FloatMask[]{mask0, mask1, mask2, mask3};
+        int[] pixels = new int[textureSize * textureSize * masks.length];
+        ParallelUtils.forEachRow(textureSize, y -> {
+            for (int x = 0; x < textureSize; x++) {
+                int offset = (y * textureSize + x) * masks.length;
+                for (int i = 0; i < masks.length; i++) {
+                    float value = masks[i].get(x, y);
+                    pixels[offset + i] = value > 0f ? StrictMath.round(StrictMath.min(1f, value) * 127 + 128) : 0;
+                }
             }
-        }
+        });
+        return pixels;
     }
 
     public FloatMask[] getTextureMasks(SymmetryHierarchy symmetryHierarchy) {
@@ -0,0 +1,178 @@
+package map;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per thread pool of the arrays double buffered mask operations work in. Buffers are pooled in size classes of
+ * their exact length, which in practice is one class per mask size, and are zeroed when borrowed so they can stand in
+ * for a freshly allocated array. A buffer must not be used after it has been released.
+ * <p>
+ * A thread keeps at most MAX_POOLED_BYTES of released buffers, the ones beyond that are left to the garbage
+ * collector. Threads that never borrowed a buffer, like the one releasing the storage of masks after hashing them,
+ * keep none.
+ */
+public strictfp class ScratchArena {
+    private static final int MAX_BUFFERS_PER_CLASS = 4;
+    private static final long MAX_POOLED_BYTES = 32L * 1024 * 1024;
+    private static final ThreadLocal<ScratchArena> ARENA = ThreadLocal.withInitial(ScratchArena::new);
+
+    private static final LongAdder allocationCount = new LongAdder();
+    private static final LongAdder allocatedBytes = new LongAdder();
+    private static final LongAdder reuseCount = new LongAdder();
+    private static final LongAdder releaseCount = new LongAdder();
+    private static final LongAdder dropCount = new LongAdder();
+
+    private final Map<Integer, ArrayDeque<long[]>> longBuffers = new HashMap<>();
+    private final Map<Integer, ArrayDeque<float[]>> floatBuffers = new HashMap<>();
+    private final Map<Integer, ArrayDeque<int[]>> intBuffers = new HashMap<>();
+    private long pooledBytes;
+    private boolean borrowing;
+
+    public static long[] borrowLongs(int length) {
+        ScratchArena arena = ARENA.get();
+        long[] buffer = arena.poll(arena.longBuffers, length, (long) length * Long.BYTES);
+        if (buffer == null) {
+            countAllocation((long) length * Long.BYTES);
+            return new long[length];
+        }
+        reuseCount.increment();
+        Arrays.fill(buffer, 0);
+        return buffer;
+    }
+
+    public static float[] borrowFloats(int length) {
+        ScratchArena arena = ARENA.get();
+        float[] buffer = arena.poll(arena.floatBuffers, length, (long) length * Float.BYTES);
+        if (buffer == null) {
+            countAllocation((long) length * Float.BYTES);
+            return new float[length];
+        }
+        reuseCount.increment();
+        Arrays.fill(buffer, 0);
+        return buffer;
+    }
+
+    public static int[] borrowInts(int length) {
+        ScratchArena arena = ARENA.get();
+        int[] buffer = arena.poll(arena.intBuffers, length, (long) length * Integer.BYTES);
+        if (buffer == null) {
+            countAllocation((long) length * Integer.BYTES);
+            return new int[length];
+        }
+        reuseCount.increment();
+        Arrays.fill(buffer, 0);
+        return buffer;
+    }
+
+    /**
+     * Borrows a buffer of the same length and fills it with the contents of source
+     */
+    public static long[] copyOf(long[] source) {
+        ScratchArena arena = ARENA.get();
+        long[] buffer = arena.poll(arena.longBuffers, source.length, (long) source.length * Long.BYTES);
+        if (buffer == null) {
+            countAllocation((long) source.length * Long.BYTES);
+            return source.clone();
+        }
+        reuseCount.increment();
+        System.arraycopy(source, 0, buffer, 0, source.length);
+        return buffer;
+    }
+
+    public static float[] copyOf(float[] source) {
+        ScratchArena arena = ARENA.get();
+        float[] buffer = arena.poll(arena.floatBuffers, source.length, (long) source.length * Float.BYTES);
+        if (buffer == null) {
+            countAllocation((long) source.length * Float.BYTES);
+            return source.clone();
+        }
+        reuseCount.increment();
+        System.arraycopy(source, 0, buffer, 0, source.length);
+        return buffer;
+    }
+
+    public static void release(long[] buffer) {
+        ScratchArena arena = ARENA.get();
+        arena.offer(arena.longBuffers, buffer, buffer.length, (long) buffer.length * Long.BYTES);
+    }
+
+    public static void release(float[] buffer) {
+        ScratchArena arena = ARENA.get();
+        arena.offer(arena.floatBuffers, buffer, buffer.length, (long) buffer.length * Float.BYTES);
+    }
+
+    public static void release(int[] buffer) {
+        ScratchArena arena = ARENA.get();
+        arena.offer(arena.intBuffers, buffer, buffer.length, (long) buffer.length * Integer.BYTES);
+    }
+
+    /**
+     * Bytes of the buffers pooled for the current thread
+     */
+    static long getPooledBytes() {
+        return ARENA.get().pooledBytes;
+    }
+
+    private <T> T poll(Map<Integer, ArrayDeque<T>> buffers, int length, long bytes) {
+        borrowing = true;
+        ArrayDeque<T> pooled = buffers.get(length);
+        T buffer = pooled != null ? pooled.pollLast() : null;
+        if (buffer != null) {
+            pooledBytes -= bytes;
+        }
+        return buffer;
+    }
+
+    private <T> void offer(Map<Integer, ArrayDeque<T>> buffers, T buffer, int length, long bytes) {
+        releaseCount.increment();
+        ArrayDeque<T> pooled = buffers.computeIfAbsent(length, k -> new ArrayDeque<>());
+        if (borrowing && pooled.size() < MAX_BUFFERS_PER_CLASS && pooledBytes + bytes <= MAX_POOLED_BYTES) {
+            pooled.addLast(buffer);
+            pooledBytes += bytes;
+        } else {
+            dropCount.increment();
+        }
+    }
+
+    private static void countAllocation(long bytes) {
+        allocationCount.increment();
+        allocatedBytes.add(bytes);
+    }
+
+    public static long getAllocationCount() {
+        return allocationCount.sum();
+    }
+
+    public static long getAllocatedBytes() {
+        return allocatedBytes.sum();
+    }
+
+    public static long getReuseCount() {
+        return reuseCount.sum();
+    }
+
+    public static long getReleaseCount() {
+        return releaseCount.sum();
+    }
+
+    public static long getDropCount() {
+        return dropCount.sum();
+    }
+
+    public static void resetCounters() {
+        allocationCount.reset();
+        allocatedBytes.reset();
+        reuseCount.reset();
+        releaseCount.reset();
+        dropCount.reset();
+    }
+
+    public static String getSummary() {
+        return String.format("Scratch buffers: %d allocated (%d MB), %d reused, %d released, %d dropped",
+                getAllocationCount(), getAllocatedBytes() >> 20, getReuseCount(), getReleaseCount(), getDropCount());
+    }
+}
@@ -0,0 +1,127 @@
+package map;
+
+import util.Vector2f;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cell index tables for symmetric mask operations, built once per mask size and symmetry and shared by all masks.
+ * Cells are indexed as x * size + y.
+ * <p>
+ * The mirror table of applySymmetry is the net effect of its in-place loop: the original loop is replayed once on
+ * cell indices, tracking which cell's value ends up in every cell, and only the cells that change are kept. Applying
+ * the table as a gather from the old values therefore gives exactly what the loop gave, including on the cells where
+ * its writes overlapped its reads.
+ */
+strictfp final class SymmetryTable {
+    private static final Map<String, int[]> HALF_CELLS = new ConcurrentHashMap<>();
+    private static final Map<String, SymmetryTable> MIRROR_TABLES = new ConcurrentHashMap<>();
+
+    private final int[] targets;
+    private final int[] sources;
+    private final boolean overlapping;
+
+    private SymmetryTable(int[] targets, int[] sources, boolean overlapping) {
+        this.targets = targets;
+        this.sources = sources;
+        this.overlapping = overlapping;
+    }
+
+    /**
+     * Cells between the bounds of the symmetry, in the order the bounds loops visit them
+     */
+    static int[] getHalfCells(Mask mask, Symmetry symmetry) {
+        return HALF_CELLS.computeIfAbsent(getKey(mask, symmetry, false), key -> {
+            int size = mask.getSize();
+            int count = 0;
+            int[] cells = new int[size * size];
+            for (int x = mask.getMinXBound(symmetry); x < mask.getMaxXBound(symmetry); x++) {
+                for (int y = mask.getMinYBound(x, symmetry); y < mask.getMaxYBound(x, symmetry); y++) {
+                    cells[count++] = x * size + y;
+                }
+            }
+            return Arrays.copyOf(cells, count);
+        });
+    }
+
+    static SymmetryTable getMirrorTable(Mask mask, Symmetry symmetry, boolean reverse) {
+        return MIRROR_TABLES.computeIfAbsent(getKey(mask, symmetry, reverse), key -> build(mask, symmetry, reverse));
+    }
+
+    private static SymmetryTable build(Mask mask, Symmetry symmetry, boolean reverse) {
+        int size = mask.getSize();
+        int[] origins = new int[size * size];
+        for (int i = 0; i < origins.length; i++) {
+            origins[i] = i;
+        }
+        for (int cell : getHalfCells(mask, symmetry)) {
+            int x = cell / size;
+            int y = cell % size;
+            switch (symmetry) {
+                case QUAD, DIAG -> {
+                    for (Vector2f symPoint : mask.getTerrainSymmetryPoints(x, y, symmetry)) {
+                        origins[getCell(symPoint, size)] = origins[cell];
+                    }
+                }
+                default -> {
+                    int symCell = getCell(mask.getSymmetryPoint(x, y, symmetry), size);
+                    if (reverse) {
+                        origins[cell] = origins[symCell];
+                    } else {
+                        origins[symCell] = origins[cell];
+                    }
+                }
+            }
+        }
+
+        int count = 0;
+        for (int i = 0; i < origins.length; i++) {
+            if (origins[i] != i) {
+                count++;
+            }
+        }
+        int[] targets = new int[count];
+        int[] sources = new int[count];
+        boolean[] isTarget = new boolean[origins.length];
+        count = 0;
+        for (int i = 0; i < origins.length; i++) {
+            if (origins[i] != i) {
+                targets[count] = i;
+                sources[count] = origins[i];
+                isTarget[i] = true;
+                count++;
+            }
+        }
+        boolean overlapping = false;
+        for (int source : sources) {
+            overlapping |= isTarget[source];
+        }
+        return new SymmetryTable(targets, sources, overlapping);
+    }
+
+    private static int getCell(Vector2f location, int size) {
+        return (int) location.x * size + (int) location.y;
+    }
+
+    private static String getKey(Mask mask, Symmetry symmetry, boolean reverse) {
+        // bounds of POINT follow the team symmetry, so it is part of the key
+        return mask.getSize() + "," + symmetry + "," + mask.getSymmetryHierarchy().getTeamSymmetry() + "," + reverse;
+    }
+
+    int[] getTargets() {
+        return targets;
+    }
+
+    int[] getSources() {
+        return sources;
+    }
+
+    /**
+     * Whether a source cell is also a target, in which case sources have to be read before any target is written
+     */
+    boolean isOverlapping() {
+        return overlapping;
+    }
+}
@@ -0,0 +1,44 @@
+package util;
+
+/**
+ * Streaming 64 bit hash over raw mask storage for determinism checks. It is not cryptographic, it only has to make
+ * two differing masks collide with negligible probability.
+ */
+public strictfp class FastHash {
+    private static final long PRIME_1 = 0x9e3779b185ebca87L;
+    private static final long PRIME_2 = 0xc2b2ae3d27d4eb4fL;
+
+    public static long hash(long[] values) {
+        long hash = values.length * PRIME_2;
+        for (long value : values) {
+            hash = round(hash, value);
+        }
+        return mix(hash);
+    }
+
+    public static long hash(float[] values) {
+        long hash = values.length * PRIME_2;
+        int i = 0;
+        for (; i + 1 < values.length; i += 2) {
+            hash = round(hash, ((long) Float.floatToRawIntBits(values[i]) << 32) | (Float.floatToRawIntBits(values[i + 1]) & 0xffffffffL));
+        }
+        if (i < values.length) {
+            hash = round(hash, Float.floatToRawIntBits(values[i]));
+        }
+        return mix(hash);
+    }
+
+    public static String toHex(long hash) {
+        return String.format("%016x", hash);
+    }
+
+    private static long round(long hash, long value) {
+        return Long.rotateLeft(hash ^ (value * PRIME_2), 31) * PRIME_1;
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,10 @@
+package util;
+
+/**
+ * How the pipeline hashes masks for the pipelineMaskHashes.txt regression file
+ */
+public strictfp enum HashMode {
+    OFF,
+    FAST,
+    MD5
+}
@@ -0,0 +1,153 @@
+package util;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Size bounded directory of deflated mask states, addressed by the SHA-256 of a description of how the state was
+ * computed. The least recently used states are deleted once the directory grows past its size. Recency survives
+ * restarts through the modification times of the files.
+ * <p>
+ * Generations running in the same JVM share the cache of a directory, see {@link #open}, so the index, the size bound
+ * and the pins cover all of them.
+ */
+public strictfp class MaskCache {
+    private static final String EXTENSION = ".mask";
+    private static final Map<Path, MaskCache> openCaches = new HashMap<>();
+
+    private final Path directory;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Long> fileSizes = new LinkedHashMap<>(16, .75f, true);
+    private final Map<String, Integer> pinCounts = new HashMap<>();
+    private long totalBytes;
+
+    private MaskCache(Path directory, long maxBytes) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(directory);
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.filter(f -> f.toString().endsWith(EXTENSION))
+                    .sorted(Comparator.comparingLong(f -> f.toFile().lastModified()))
+                    .collect(Collectors.toList())) {
+                long fileSize = Files.size(file);
+                fileSizes.put(getKey(file), fileSize);
+                totalBytes += fileSize;
+            }
+        }
+    }
+
+    /**
+     * Cache of the directory, opened on first use. Later calls for the same directory get the same cache and keep the
+     * size it was opened with.
+     */
+    public static MaskCache open(Path directory, long maxBytes) throws IOException {
+        Files.createDirectories(directory);
+        Path realDirectory = directory.toRealPath();
+        synchronized (openCaches) {
+            MaskCache cache = openCaches.get(realDirectory);
+            if (cache == null) {
+                cache = new MaskCache(realDirectory, maxBytes);
+                openCaches.put(realDirectory, cache);
+            }
+            return cache;
+        }
+    }
+
+    public static String getKey(String description) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(description.getBytes(StandardCharsets.UTF_8));
+            StringBuilder key = new StringBuilder();
+            for (byte b : digest) {
+                key.append(String.format("%02x", b));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public synchronized boolean contains(String key) {
+        return fileSizes.containsKey(key);
+    }
+
+    /**
+     * Keeps the states from being evicted until they are unpinned, for states a running pipeline still has to load.
+     * Pins are counted, a state pinned by several pipelines stays until each of them unpinned it.
+     */
+    public synchronized void pin(Collection<String> keys) {
+        keys.forEach(key -> pinCounts.merge(key, 1, Integer::sum));
+    }
+
+    public synchronized void unpin(Collection<String> keys) {
+        keys.forEach(key -> pinCounts.computeIfPresent(key, (k, count) -> count > 1 ? count - 1 : null));
+    }
+
+    /**
+     * Inflated state for key, or null if it is not cached
+     */
+    public byte[] get(String key) throws IOException {
+        synchronized (this) {
+            if (fileSizes.get(key) == null) {
+                return null;
+            }
+        }
+        File file = getFile(key).toFile();
+        try (InputStream in = new InflaterInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            byte[] state = in.readAllBytes();
+            file.setLastModified(System.currentTimeMillis());
+            return state;
+        }
+    }
+
+    public void put(String key, byte[] state) throws IOException {
+        Path file = getFile(key);
+        Path tempFile = Files.createTempFile(directory, key, ".tmp");
+        try (OutputStream out = new DeflaterOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile.toFile())), new Deflater(Deflater.BEST_SPEED))) {
+            out.write(state);
+        }
+        long fileSize = Files.size(tempFile);
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        List<String> evictedKeys = new ArrayList<>();
+        synchronized (this) {
+            Long oldSize = fileSizes.put(key, fileSize);
+            totalBytes += fileSize - (oldSize != null ? oldSize : 0);
+            Iterator<Map.Entry<String, Long>> iterator = fileSizes.entrySet().iterator();
+            while (totalBytes > maxBytes && iterator.hasNext()) {
+                Map.Entry<String, Long> entry = iterator.next();
+                if (!pinCounts.containsKey(entry.getKey()) && !entry.getKey().equals(key)) {
+                    totalBytes -= entry.getValue();
+                    evictedKeys.add(entry.getKey());
+                    iterator.remove();
+                }
+            }
+        }
+        for (String evictedKey : evictedKeys) {
+            Files.deleteIfExists(getFile(evictedKey));
+        }
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    private Path getFile(String key) {
+        return directory.resolve(key + EXTENSION);
+    }
+
+    private static String getKey(Path file) {
+        String fileName = file.getFileName().toString();
+        return fileName.substring(0, fileName.length() - EXTENSION.length());
+    }
+}
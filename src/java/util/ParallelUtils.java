@@ -0,0 +1,100 @@
+package util;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * Splits mask kernels into bands of rows that run on a fork join pool. Every row is computed by exactly one task
+ * and only writes its own cells, so results are identical to running the rows in order on a single thread.
+ */
+public strictfp class ParallelUtils {
+    private static final int MIN_ROWS_PER_TASK = 16;
+    private static final int TASKS_PER_THREAD = 4;
+
+    private static volatile ForkJoinPool pool = ForkJoinPool.commonPool();
+    private static volatile boolean serial = false;
+
+    /**
+     * Replaces the pool by one with the given parallelism, keeps the current one when it already has it. The old pool
+     * is shut down, so the parallelism must not change while masks of another generation are running.
+     */
+    public static synchronized void setParallelism(int parallelism) {
+        ForkJoinPool oldPool = pool;
+        if (oldPool.getParallelism() == parallelism) {
+            return;
+        }
+        pool = new ForkJoinPool(parallelism);
+        if (oldPool != ForkJoinPool.commonPool()) {
+            oldPool.shutdown();
+        }
+    }
+
+    public static int getParallelism() {
+        return serial ? 1 : pool.getParallelism();
+    }
+
+    public static boolean isSerial() {
+        return serial;
+    }
+
+    public static void setSerial(boolean serial) {
+        ParallelUtils.serial = serial;
+    }
+
+    /**
+     * Runs rowAction for every row in [0, rowCount), in parallel unless serial mode is set or there are too few rows
+     */
+    public static void forEachRow(int rowCount, IntConsumer rowAction) {
+        forEachBand(rowCount, (start, end) -> {
+            for (int row = start; row < end; row++) {
+                rowAction.accept(row);
+            }
+        });
+    }
+
+    /**
+     * Covers [0, rowCount) with disjoint bands of consecutive rows and runs bandAction on each of them,
+     * for kernels that carry running state from one row to the next
+     */
+    public static void forEachBand(int rowCount, BandAction bandAction) {
+        ForkJoinPool pool = ParallelUtils.pool;
+        if (serial || pool.getParallelism() <= 1 || rowCount < 2 * MIN_ROWS_PER_TASK) {
+            bandAction.accept(0, rowCount);
+            return;
+        }
+        int rowsPerTask = StrictMath.max(MIN_ROWS_PER_TASK, rowCount / (pool.getParallelism() * TASKS_PER_THREAD));
+        pool.invoke(new RowBand(0, rowCount, rowsPerTask, bandAction));
+    }
+
+    @FunctionalInterface
+    public interface BandAction {
+        void accept(int start, int end);
+    }
+
+    private static class RowBand extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int start;
+        private final int end;
+        private final int rowsPerTask;
+        private final BandAction bandAction;
+
+        private RowBand(int start, int end, int rowsPerTask, BandAction bandAction) {
+            this.start = start;
+            this.end = end;
+            this.rowsPerTask = rowsPerTask;
+            this.bandAction = bandAction;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= rowsPerTask) {
+                bandAction.accept(start, end);
+            } else {
+                int middle = (start + end) >>> 1;
+                invokeAll(new RowBand(start, middle, rowsPerTask, bandAction), new RowBand(middle, end, rowsPerTask, bandAction));
+            }
+        }
+    }
+}
@@ -1,210 +1,161 @@
 package util;
 
-import generator.MapGenerator;
 import map.ConcurrentBinaryMask;
 import map.ConcurrentFloatMask;
 import map.ConcurrentMask;
 
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.security.NoSuchAlgorithmException;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.function.Function;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
+/**
+ * Entry point of the mask pipeline. Masks add their operations to the {@link PipelineContext} they were created in,
+ * which is the context bound to the creating thread.
+ */
 public strictfp class Pipeline {
 
-    private static final List<Entry> pipeline = new ArrayList<>();
-    public static CompletableFuture<List<ConcurrentMask>> started = new CompletableFuture<>();
-    public static String[] hashArray;
+    private static final ThreadLocal<PipelineContext> boundContext = new ThreadLocal<>();
 
-    public static void reset() {
-        started = new CompletableFuture<>();
-        pipeline.clear();
-    }
-
-    public static ConcurrentBinaryMask add(ConcurrentBinaryMask executingMask, List<ConcurrentMask> dep, Function<List<ConcurrentMask>, ?> function) {
-        addInternal(executingMask, dep, function);
-        return executingMask;
+    /**
+     * Context bound to the current thread, masks can not be created on threads without one
+     */
+    public static PipelineContext getContext() {
+        PipelineContext context = boundContext.get();
+        if (context == null) {
+            throw new IllegalStateException("No pipeline context is bound to the current thread, masks have to be created after Pipeline.bind");
+        }
+        return context;
     }
 
-    public static ConcurrentFloatMask add(ConcurrentFloatMask executingMask, List<ConcurrentMask> dep, Function<List<ConcurrentMask>, ?> function) {
-        addInternal(executingMask, dep, function);
-        return executingMask;
+    /**
+     * Makes masks created on the current thread join the given context until {@link #unbind()} is called
+     */
+    public static void bind(PipelineContext context) {
+        boundContext.set(context);
     }
 
-    private static void addInternal(ConcurrentMask executingMask, List<ConcurrentMask> dep, Function<List<ConcurrentMask>, ?> function) {
-        int index = pipeline.size();
-        boolean addedAfterPipelineStart = Pipeline.isStarted();
-        final String callingLine = Util.getStackTraceLineInClass(MapGenerator.class);
-        final String callingMethod = Util.getStackTraceMethod(executingMask.getClass());
-
-        List<Pipeline.Entry> dependencies = Pipeline.getDependencyList(dep);
-        CompletableFuture<?> newFuture = Pipeline.getDependencyFuture(dependencies, executingMask)
-                .thenApply(res -> {
-                    if (addedAfterPipelineStart && !executingMask.getName().equals("mocked") && !executingMask.getName().equals("new binary mask") && !executingMask.getName().equals("new float mask")) {
-                        System.err.println("Running non deterministic task added after pipeline start!  " + executingMask.getName());
-                    }
-                    return res;
-                })
-                .thenApplyAsync(m -> {
-                    long startTime = System.currentTimeMillis();
-                    Object res = function.apply(m);
-                    long functionTime = System.currentTimeMillis() - startTime;
-                    startTime = System.currentTimeMillis();
-                    try {
-                        hashArray[index] = String.format("%s,\t%s,\t%s,\t%s%n", executingMask.toHash(), callingLine, executingMask.getName(), callingMethod);
-                    } catch (NoSuchAlgorithmException e) {
-                        System.err.println("Cannot hash mask");
-                    }
-                    long hashTime = System.currentTimeMillis() - startTime;
-                    if (MapGenerator.DEBUG) {
-                        System.out.printf("Done: function time %4d ms, hash time %4d ms, %s, %s(%d)->%s\n",
-                                functionTime,
-                                hashTime,
-                                callingLine,
-                                executingMask.getName(),
-                                index,
-                                callingMethod
-                        );
-                    }
-                    return res;
-                })
-                .thenRun(() -> {
-
-                });
-        Entry entry = new Entry(index, executingMask, dependencies, newFuture);
-
-        entry.dependencies.forEach(d -> d.dependants.add(entry));
-        entry.index = pipeline.size();
-        pipeline.add(entry);
-
-        if (MapGenerator.DEBUG) {
-            System.out.printf("%d: New pipeline entry:   %s,  %s,  deps:[%s]\n",
-                    index,
-                    executingMask.getName(),
-                    new Throwable().getStackTrace()[2].getMethodName(),
-                    dependencies.stream().map(e -> e.getExecutingMask().getName() + "(" + pipeline.indexOf(e) + ")").reduce((acc, r) -> acc + ", " + r).orElse("none")
-            );
-        }
-
+    /**
+     * Context bound to the current thread, null when there is none
+     */
+    public static PipelineContext getBoundContext() {
+        return boundContext.get();
     }
 
-    public static void start() {
-        System.out.println("Starting pipeline");
-        hashArray = new String[getPipelineSize()];
-        started.complete(null);
+    public static void unbind() {
+        boundContext.remove();
     }
 
-    public static void stop() {
-        pipeline.forEach(e -> e.getFuture().join());
-        System.out.println("pipeline stopped!");
+    public static ConcurrentBinaryMask add(ConcurrentBinaryMask executingMask, List<ConcurrentMask> dep, Function<List<ConcurrentMask>, ?> function) {
+        executingMask.getPipelineContext().add(executingMask, dep, function);
+        return executingMask;
     }
 
-    public static boolean isStarted() {
-        return started.isDone();
+    public static ConcurrentFloatMask add(ConcurrentFloatMask executingMask, List<ConcurrentMask> dep, Function<List<ConcurrentMask>, ?> function) {
+        executingMask.getPipelineContext().add(executingMask, dep, function);
+        return executingMask;
     }
 
     public static void await(ConcurrentMask... masks) {
-        getDependencyList(Arrays.asList(masks)).get(0).getFuture().join();
-        getDependencyList(Arrays.asList(masks)).forEach(e -> e.getFuture().join());
-    }
-
-    public static List<Entry> getDependencyList(List<ConcurrentMask> requiredMasks) {
-        List<Entry> res = new ArrayList<>();
-
-
-        for (ConcurrentMask requiredMask : requiredMasks) {
-            for (int i = pipeline.size() - 1; i >= 0; i--) {
-                if (requiredMask == pipeline.get(i).executingMask) {
-                    res.add(pipeline.get(i));
-                    break;
-                }
-            }
-        }
-        return res;
+        masks[0].getPipelineContext().await(masks);
     }
 
     /**
-     * Returns a future that completes once all dependencies are met and returns their result
-     *
-     * @param dependencyList
-     * @return a list of the results, DO NOT MODIFY THOSE!, may be mocks
+     * A task of the pipeline. When it finishes, the dependants reading its mask share one copy on write snapshot of
+     * it: readers get read only views of the snapshot, and the owner's next task only copies the storage when it
+     * starts while some of them are still reading.
      */
-    public static CompletableFuture<List<ConcurrentMask>> getDependencyFuture(List<Entry> dependencyList, ConcurrentMask requestingMask) {
-        if (pipeline.isEmpty() || dependencyList.isEmpty()) {
-            return started;
-        }
-
-        CompletableFuture<?>[] futures = dependencyList.stream().map(Entry::getFuture).toArray(CompletableFuture<?>[]::new);
-
-        if (futures.length == 0) {
-            return started;
-        }
-
-        return CompletableFuture.allOf(futures)
-                .thenApplyAsync(aVoid ->
-                        dependencyList.stream()
-                                .map(e -> e.getResult(requestingMask))
-                                .collect(Collectors.toList())
-                );
-    }
-
-    public static int getPipelineSize() {
-        return pipeline.size();
-    }
-
-    public static void toFile(Path path) throws IOException {
-        Files.deleteIfExists(path);
-        File outFile = path.toFile();
-        boolean status = outFile.createNewFile();
-        FileOutputStream out = new FileOutputStream(outFile);
-        for (String s : hashArray) {
-            out.write(s.getBytes());
-        }
-        out.flush();
-        out.close();
-    }
-
     public static strictfp class Entry {
         private final ConcurrentMask executingMask;
         private final Set<Entry> dependencies;
         private final CompletableFuture<?> future;
         private final Set<Entry> dependants = new HashSet<>();
-        private final List<ConcurrentMask> maskBackups = new ArrayList<>();
+        private final List<Runnable> fusedOperations;
+        private final String costKey;
+        private final int externalReaders;
+        private final Trace trace;
+        private ConcurrentMask snapshot;
+        private int pendingReaders;
+        private boolean ownerDetached;
+        private boolean releasesMask;
         private int index;
 
-        public Entry(int index, ConcurrentMask executingMask, Collection<Entry> dependencies, CompletableFuture<?> future) {
+        public Entry(int index, ConcurrentMask executingMask, Collection<Entry> dependencies, CompletableFuture<?> future, List<Runnable> fusedOperations, String costKey, int externalReaders, Trace trace) {
             this.index = index;
+            this.trace = trace;
+            this.fusedOperations = fusedOperations;
+            this.costKey = costKey;
+            this.externalReaders = externalReaders;
             this.executingMask = executingMask;
             this.dependencies = new HashSet<>(dependencies);
-            this.future = future.thenRun(() -> {
-                if (dependants.size() > 0) {
-                    if (dependants.stream().anyMatch(d -> d.getExecutingMask() == this.executingMask)) {
-                        IntStream.range(0, dependants.size() - 1).forEach(i -> maskBackups.add(executingMask.mockClone()));
-                    } else {
-                        IntStream.range(0, dependants.size()).forEach(i -> maskBackups.add(executingMask.mockClone()));
-                    }
-                }
-            });
+            this.future = future.thenRun(this::takeSnapshot);
+        }
+
+        private synchronized void takeSnapshot() {
+            pendingReaders = (int) dependants.stream().filter(d -> d.getExecutingMask() != executingMask).count() + externalReaders;
+            if (pendingReaders > 0) {
+                snapshot = executingMask.getSnapshot();
+            } else if (releasesMask) {
+                executingMask.releaseStorage();
+            }
+        }
+
+        /**
+         * Makes the entry release the storage of its mask once its last reader is done, for the last entry of a mask
+         * nothing reads after the pipeline
+         */
+        synchronized void setReleasesMask(boolean releasesMask) {
+            this.releasesMask = releasesMask;
         }
 
         public synchronized ConcurrentMask getResult(ConcurrentMask requestingMask) {
             if (requestingMask == executingMask) {
+                if (pendingReaders > 0 && !ownerDetached) {
+                    executingMask.detach();
+                    ownerDetached = true;
+                }
                 return executingMask;
-            } /*else if(dependants.size() == 1) {
-				return executingMask;
-			} */ else {
-                if (maskBackups.isEmpty()) {
-                    new RuntimeException(String.format("No backup mask left: %d, requested from: %s", index, requestingMask.getName())).printStackTrace();
-                    return null;
+            } else {
+                if (snapshot == null) {
+                    throw new IllegalStateException(String.format("No snapshot left: %d, requested from: %s", index, requestingMask.getName()));
                 }
-                return maskBackups.remove(0);
+                return snapshot.getSnapshot();
+            }
+        }
+
+        /**
+         * Read only view of the result for one of the external readers the entry was created with, like the mask
+         * hasher. Every view has to be given back with {@link #releaseView()}.
+         */
+        public synchronized ConcurrentMask acquireView() {
+            return snapshot.getSnapshot();
+        }
+
+        public synchronized void releaseView() {
+            releaseReader();
+        }
+
+        /**
+         * Called once the task of requestingMask no longer reads the result of this entry
+         */
+        public synchronized void release(ConcurrentMask requestingMask) {
+            if (requestingMask == executingMask) {
+                return;
+            }
+            releaseReader();
+        }
+
+        private void releaseReader() {
+            if (snapshot == null) {
+                return;
+            }
+            pendingReaders--;
+            if (pendingReaders == 0) {
+                if (ownerDetached) {
+                    snapshot.releaseSnapshot();
+                } else if (releasesMask) {
+                    executingMask.releaseStorage();
+                }
+                snapshot = null;
             }
         }
 
@@ -224,8 +175,100 @@ public strictfp class Pipeline {
             return dependants;
         }
 
+        /**
+         * Operations on the executing mask that run after the entry's own function, in the order they were added
+         */
+        public List<Runnable> getFusedOperations() {
+            return fusedOperations;
+        }
+
+        /**
+         * Identifies the entry across generations in the scheduler's cost history
+         */
+        public String getCostKey() {
+            return costKey;
+        }
+
+        public Trace getTrace() {
+            return trace;
+        }
+
         public int getIndex() {
             return index;
         }
     }
+
+    /**
+     * Timeline of one entry in {@link System#nanoTime()}: when it was added, when its dependencies were met and it
+     * was queued on the scheduler, and when its task started and ended. Times it has not reached yet are zero.
+     */
+    public static strictfp class Trace {
+        private final String maskName;
+        private final String callingLine;
+        private final String callingMethod;
+        private final long enqueueTime = System.nanoTime();
+        private volatile long readyTime;
+        private volatile long startTime;
+        private volatile long endTime;
+        private volatile String threadName;
+
+        public Trace(String maskName, String callingLine, String callingMethod) {
+            this.maskName = maskName;
+            this.callingLine = callingLine;
+            this.callingMethod = callingMethod;
+        }
+
+        void markReady() {
+            readyTime = System.nanoTime();
+        }
+
+        void markStart() {
+            threadName = Thread.currentThread().getName();
+            startTime = System.nanoTime();
+        }
+
+        void markEnd() {
+            endTime = System.nanoTime();
+        }
+
+        public String getMaskName() {
+            return maskName;
+        }
+
+        public String getCallingLine() {
+            return callingLine;
+        }
+
+        public String getCallingMethod() {
+            return callingMethod;
+        }
+
+        public long getEnqueueTime() {
+            return enqueueTime;
+        }
+
+        public long getReadyTime() {
+            return readyTime;
+        }
+
+        public long getStartTime() {
+            return startTime;
+        }
+
+        public long getEndTime() {
+            return endTime;
+        }
+
+        public String getThreadName() {
+            return threadName;
+        }
+
+        public long getQueueTime() {
+            return startTime - readyTime;
+        }
+
+        public long getRunTime() {
+            return endTime - startTime;
+        }
+    }
 }
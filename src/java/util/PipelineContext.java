@@ -0,0 +1,639 @@
+package util;
+
+import generator.MapGenerator;
+import map.ConcurrentMask;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The task graph, start signal and hash log of a single map generation. Every concurrent mask belongs to exactly one
+ * context, so several maps can be generated at the same time in one JVM without sharing any pipeline state.
+ */
+public strictfp class PipelineContext {
+
+    private final List<Pipeline.Entry> pipeline = new ArrayList<>();
+    private final CompletableFuture<List<ConcurrentMask>> started = new CompletableFuture<>();
+    private String[] hashArray;
+    private boolean verifying;
+    private HashMode hashMode = HashMode.OFF;
+    private final List<CompletableFuture<?>> hashFutures = new ArrayList<>();
+    private PipelineScheduler scheduler = PipelineScheduler.getDefault();
+    private volatile long[] priorities = new long[0];
+    private volatile boolean cancelled;
+    private long startTime;
+    private final Map<ConcurrentMask, Pipeline.Entry> lastWriters = Collections.synchronizedMap(new IdentityHashMap<>());
+    private final List<PipelineStage> stages = new ArrayList<>();
+    private CompletableFuture<Void> stagesDone = CompletableFuture.completedFuture(null);
+    private final Set<ConcurrentMask> retainedMasks = Collections.newSetFromMap(new IdentityHashMap<>());
+    private MaskCache cache;
+    private String cacheScope;
+    private final List<String> cacheScopes = new ArrayList<>();
+    private volatile String[] cacheKeys = new String[0];
+    private volatile EntryMode[] entryModes = new EntryMode[0];
+    private List<String> pinnedKeys = new ArrayList<>();
+    private final Queue<CompletableFuture<?>> cacheWrites = new ConcurrentLinkedQueue<>();
+
+    private boolean pruning;
+    private boolean cellRandom;
+
+    enum EntryMode {
+        RUN, LOAD, SKIP, PRUNE
+    }
+
+    void add(ConcurrentMask executingMask, List<ConcurrentMask> dep, Function<List<ConcurrentMask>, ?> function) {
+        List<Pipeline.Entry> dependencies = getDependencyList(dep);
+        if (canFuse(executingMask, dep, dependencies)) {
+            Pipeline.Entry entry = dependencies.get(0);
+            entry.getFusedOperations().add(() -> function.apply(dep));
+            if (MapGenerator.DEBUG) {
+                System.out.printf("%d: Fused into entry:     %s,  %s\n",
+                        entry.getIndex(),
+                        executingMask.getName(),
+                        Util.getStackTraceMethod(executingMask.getClass())
+                );
+            }
+            return;
+        }
+
+        int index = pipeline.size();
+        boolean addedAfterPipelineStart = isStarted();
+        final String[] callSite = Util.getCallSite(MapGenerator.class, executingMask.getClass());
+        final String callingLine = callSite[0];
+        final String callingMethod = callSite[1];
+        final String costKey = String.format("%d,%s,%s,%s", executingMask.getSize(), callingLine, executingMask.getName(), callingMethod);
+        List<Runnable> fusedOperations = new ArrayList<>();
+        Pipeline.Trace trace = new Pipeline.Trace(executingMask.getName(), callingLine, callingMethod);
+        Executor executor = scheduler.getExecutor(() -> getPriority(index));
+
+        CompletableFuture<?> newFuture = getDependencyFuture(dependencies, executingMask)
+                .thenApplyAsync(m -> {
+                    if (addedAfterPipelineStart && !executingMask.getName().equals("mocked") && !executingMask.getName().equals("new binary mask") && !executingMask.getName().equals("new float mask")) {
+                        System.err.println("Running non deterministic task added after pipeline start!  " + executingMask.getName());
+                    }
+                    checkCancelled();
+                    trace.markStart();
+                    EntryMode entryMode = getEntryMode(index);
+                    Object res = null;
+                    Pipeline.bind(this);
+                    try {
+                        if (entryMode == EntryMode.RUN) {
+                            res = function.apply(m);
+                        }
+                        dependencies.stream().distinct().forEach(d -> d.release(executingMask));
+                        if (entryMode == EntryMode.RUN) {
+                            fusedOperations.forEach(Runnable::run);
+                            storeInCache(index, executingMask);
+                        } else if (entryMode == EntryMode.LOAD) {
+                            loadFromCache(index, executingMask);
+                        }
+                    } finally {
+                        Pipeline.unbind();
+                    }
+                    trace.markEnd();
+                    long functionNanos = trace.getRunTime();
+                    if (entryMode == EntryMode.RUN) {
+                        PipelineScheduler.recordCost(costKey, functionNanos);
+                    }
+                    if (MapGenerator.DEBUG) {
+                        System.out.printf("Done: %s time %4d ms, %s, %s(%d)->%s +%d fused\n",
+                                entryMode.name().toLowerCase(),
+                                functionNanos / 1000000,
+                                callingLine,
+                                executingMask.getName(),
+                                index,
+                                callingMethod,
+                                fusedOperations.size()
+                        );
+                    }
+                    return res;
+                }, command -> {
+                    trace.markReady();
+                    executor.execute(command);
+                });
+        Pipeline.Entry entry = new Pipeline.Entry(index, executingMask, dependencies, newFuture, fusedOperations, costKey, hashMode != HashMode.OFF ? 1 : 0, trace);
+
+        entry.getDependencies().forEach(d -> d.getDependants().add(entry));
+        pipeline.add(entry);
+        lastWriters.put(executingMask, entry);
+        cacheScopes.add(addedAfterPipelineStart ? null : cacheScope);
+        if (hashMode != HashMode.OFF) {
+            hashFutures.add(entry.getFuture().thenRunAsync(() -> hash(entry, callingLine, callingMethod), PipelineScheduler.getBackgroundExecutor()));
+        }
+
+        if (MapGenerator.DEBUG) {
+            System.out.printf("%d: New pipeline entry:   %s,  %s,  deps:[%s]\n",
+                    index,
+                    executingMask.getName(),
+                    callingMethod,
+                    dependencies.stream().map(e -> e.getExecutingMask().getName() + "(" + e.getIndex() + ")").reduce((acc, r) -> acc + ", " + r).orElse("none")
+            );
+        }
+
+    }
+
+    /**
+     * Hashes the result of an entry from a snapshot, so the hash stays off the entry's own task and its dependants
+     * can already run. The owner only copies its storage if it gets to run again before the hash is done.
+     */
+    private void hash(Pipeline.Entry entry, String callingLine, String callingMethod) {
+        ConcurrentMask view = entry.acquireView();
+        try {
+            long startTime = System.currentTimeMillis();
+            // skipped entries never restored their state, the cached state they stand for is addressed by their key
+            EntryMode entryMode = getEntryMode(entry.getIndex());
+            String hash = entryMode == EntryMode.SKIP ? "cached " + cacheKeys[entry.getIndex()]
+                    : entryMode == EntryMode.PRUNE ? "pruned"
+                    : hashMode == HashMode.MD5 ? view.toHash() : view.toFastHash();
+            if (hashArray != null && entry.getIndex() < hashArray.length) {
+                hashArray[entry.getIndex()] = String.format("%s,\t%s,\t%s,\t%s%n", hash, callingLine, entry.getExecutingMask().getName(), callingMethod);
+            }
+            if (MapGenerator.DEBUG) {
+                System.out.printf("Hashed: hash time %4d ms, %s(%d)\n", System.currentTimeMillis() - startTime, entry.getExecutingMask().getName(), entry.getIndex());
+            }
+        } catch (NoSuchAlgorithmException e) {
+            System.err.println("Cannot hash mask");
+        } finally {
+            entry.releaseView();
+        }
+    }
+
+    EntryMode getEntryMode(int index) {
+        EntryMode[] modes = entryModes;
+        return index < modes.length ? modes[index] : EntryMode.RUN;
+    }
+
+    private void storeInCache(int index, ConcurrentMask executingMask) {
+        String key = index < cacheKeys.length ? cacheKeys[index] : null;
+        if (key == null) {
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            executingMask.writeState(out);
+        } catch (IOException e) {
+            System.err.println("Cannot serialize mask for the cache: " + e.getMessage());
+            return;
+        }
+        cacheWrites.add(CompletableFuture.runAsync(() -> {
+            try {
+                cache.put(key, bytes.toByteArray());
+            } catch (IOException e) {
+                System.err.println("Cannot write mask cache: " + e.getMessage());
+            }
+        }, PipelineScheduler.getBackgroundExecutor()));
+    }
+
+    /**
+     * Restores the state of a cache hit. The entries skipped before it left the mask stale, so a state that cannot
+     * be read fails the pipeline instead of silently continuing from the stale mask.
+     */
+    private void loadFromCache(int index, ConcurrentMask executingMask) {
+        try {
+            byte[] state = cache.get(cacheKeys[index]);
+            if (state == null) {
+                throw new IOException("evicted");
+            }
+            executingMask.readState(new DataInputStream(new ByteArrayInputStream(state)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(String.format("Cannot load cached mask %s(%d)", executingMask.getName(), index), e);
+        }
+    }
+
+    /**
+     * Decides for every entry whether it runs, restores its state from the cache or is skipped. The key of an entry
+     * describes the scope, its own operation and the keys of its dependencies, so it addresses everything its result
+     * depends on. A cached entry only has to restore its state if an entry that runs reads it, or if it is the last
+     * entry of its mask, all other cached entries are skipped.
+     */
+    private void planCache(EntryMode[] modes) {
+        int size = pipeline.size();
+        String[] keys = new String[size];
+        for (int i = 0; i < size; i++) {
+            Pipeline.Entry entry = pipeline.get(i);
+            List<Pipeline.Entry> dependencies = new ArrayList<>(entry.getDependencies());
+            dependencies.sort(Comparator.comparingInt(Pipeline.Entry::getIndex));
+            if (cacheScopes.get(i) == null || dependencies.stream().anyMatch(d -> keys[d.getIndex()] == null)) {
+                continue;
+            }
+            keys[i] = MaskCache.getKey(String.format("%s\n%s\n%d\n%s", cacheScopes.get(i), entry.getCostKey(), entry.getFusedOperations().size(),
+                    dependencies.stream().map(d -> keys[d.getIndex()]).collect(Collectors.joining(","))));
+        }
+        for (int i = 0; i < size; i++) {
+            if (modes[i] == EntryMode.PRUNE) {
+                // pruned entries neither read nor write the cache, so their states are not pinned
+                keys[i] = null;
+            }
+        }
+        // pinned before looking them up, so the states found can not be evicted by other pipelines sharing the cache
+        pinnedKeys = Arrays.stream(keys).filter(Objects::nonNull).collect(Collectors.toList());
+        cache.pin(pinnedKeys);
+        for (int i = size - 1; i >= 0; i--) {
+            Pipeline.Entry entry = pipeline.get(i);
+            if (modes[i] == EntryMode.PRUNE) {
+                continue;
+            }
+            if (keys[i] == null || !cache.contains(keys[i])) {
+                modes[i] = EntryMode.RUN;
+            } else {
+                boolean lastOfMask = entry.getDependants().stream().noneMatch(d -> d.getExecutingMask() == entry.getExecutingMask());
+                boolean readByRun = entry.getDependants().stream().anyMatch(d -> modes[d.getIndex()] == EntryMode.RUN);
+                modes[i] = lastOfMask || readByRun ? EntryMode.LOAD : EntryMode.SKIP;
+            }
+        }
+        cacheKeys = keys;
+        if (MapGenerator.DEBUG) {
+            System.out.printf("Mask cache: %d run, %d load, %d skip\n",
+                    Arrays.stream(modes).filter(m -> m == EntryMode.RUN).count(),
+                    Arrays.stream(modes).filter(m -> m == EntryMode.LOAD).count(),
+                    Arrays.stream(modes).filter(m -> m == EntryMode.SKIP).count());
+        }
+    }
+
+    /**
+     * An operation that only reads its own mask runs as part of the mask's last entry while nothing else depends on
+     * that entry yet, which saves the scheduling and hashing of an entry per chained call. Entries only take
+     * operations before the pipeline starts, and never in verification mode, where every operation is hashed.
+     */
+    private boolean canFuse(ConcurrentMask executingMask, List<ConcurrentMask> dep, List<Pipeline.Entry> dependencies) {
+        return !verifying
+                && !isStarted()
+                && !dep.isEmpty()
+                && dep.stream().allMatch(mask -> mask == executingMask)
+                && dependencies.size() == 1
+                && dependencies.get(0).getDependants().isEmpty();
+    }
+
+    public PipelineScheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Runs the entries of this context on the given scheduler instead of the default one, has to be set before the
+     * first mask is created in the context
+     */
+    public void setScheduler(PipelineScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Keeps the storage of the masks after their last pipeline operation, for masks that are read once the pipeline
+     * is running. Storage of all other masks goes back to the scratch arena as soon as the entries reading it are
+     * done, so this has to be called before the pipeline starts.
+     */
+    public void retain(ConcurrentMask... masks) {
+        retainedMasks.addAll(Arrays.asList(masks));
+    }
+
+    public MaskCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Restores entries from the cache and stores the ones that run, has to be set before the pipeline starts
+     */
+    public void setCache(MaskCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Description of everything the masks added from now on depend on apart from the pipeline itself, like the
+     * generator version and options. Entries added without a scope are never cached.
+     */
+    public void setCacheScope(String cacheScope) {
+        this.cacheScope = cacheScope;
+    }
+
+    public HashMode getHashMode() {
+        return hashMode;
+    }
+
+    /**
+     * Has to be set before the first mask is created in the context
+     */
+    public void setHashMode(HashMode hashMode) {
+        this.hashMode = hashMode;
+    }
+
+    public boolean isVerifying() {
+        return verifying;
+    }
+
+    /**
+     * Gives every mask operation its own entry and hash, to find the operation where two runs start to differ
+     */
+    public void setVerifying(boolean verifying) {
+        this.verifying = verifying;
+    }
+
+    public boolean isPruning() {
+        return pruning;
+    }
+
+    /**
+     * Only runs the entries whose results the stages read, directly or through other entries. For generations that
+     * leave out stages but still create all masks, so the masks they keep draw the same seeds as in a full generation.
+     * Has to be set before the pipeline starts.
+     */
+    public void setPruning(boolean pruning) {
+        this.pruning = pruning;
+    }
+
+    public boolean isCellRandom() {
+        return cellRandom;
+    }
+
+    /**
+     * Makes the stochastic operations of the masks draw a {@link map.CellRandom} value per cell instead of drawing from
+     * the mask's random in order. Masks read it from the context bound to the thread they run on, which is this one
+     * for the entries and stages of the pipeline. Has to be set before the first mask is created in the context.
+     */
+    public void setCellRandom(boolean cellRandom) {
+        this.cellRandom = cellRandom;
+    }
+
+    public void start() {
+        System.out.println("Starting pipeline");
+        hashArray = new String[getPipelineSize()];
+        EntryMode[] modes = new EntryMode[getPipelineSize()];
+        Arrays.fill(modes, EntryMode.RUN);
+        if (pruning) {
+            prune(modes);
+        }
+        if (cache != null) {
+            planCache(modes);
+        }
+        entryModes = modes;
+        prioritize();
+        markReleases();
+        startTime = System.nanoTime();
+        startStages();
+        started.complete(null);
+    }
+
+    /**
+     * Prunes every entry that neither the stages nor an entry that is not pruned read. Dependants come after their
+     * dependencies, so walking the entries backwards sees whether an entry is read before reaching it.
+     */
+    private void prune(EntryMode[] modes) {
+        boolean[] read = new boolean[modes.length];
+        stages.forEach(stage -> getDependencyList(stage.getMasks()).forEach(entry -> read[entry.getIndex()] = true));
+        for (int i = modes.length - 1; i >= 0; i--) {
+            if (read[i]) {
+                pipeline.get(i).getDependencies().forEach(dependency -> read[dependency.getIndex()] = true);
+            } else {
+                modes[i] = EntryMode.PRUNE;
+            }
+        }
+        if (MapGenerator.DEBUG) {
+            System.out.printf("Pipeline pruning: %d of %d entries pruned\n", Arrays.stream(modes).filter(m -> m == EntryMode.PRUNE).count(), modes.length);
+        }
+    }
+
+    /**
+     * Lets the last entry of every mask that is not retained release the mask's storage once nothing reads it anymore
+     */
+    private void markReleases() {
+        for (Pipeline.Entry entry : pipeline) {
+            boolean lastOfMask = entry.getDependants().stream().noneMatch(d -> d.getExecutingMask() == entry.getExecutingMask());
+            entry.setReleasesMask(lastOfMask && !retainedMasks.contains(entry.getExecutingMask()));
+        }
+    }
+
+    /**
+     * Gives every entry the estimated cost of the longest path from its start to the end of the pipeline. Entries
+     * are added after their dependencies, so walking them backwards sees every dependant before its dependencies.
+     */
+    private void prioritize() {
+        long[] pathCosts = new long[pipeline.size()];
+        for (int i = pipeline.size() - 1; i >= 0; i--) {
+            Pipeline.Entry entry = pipeline.get(i);
+            long longestDependantPath = 0;
+            for (Pipeline.Entry dependant : entry.getDependants()) {
+                longestDependantPath = StrictMath.max(longestDependantPath, pathCosts[dependant.getIndex()]);
+            }
+            pathCosts[i] = PipelineScheduler.getEstimatedCost(entry.getCostKey(), entry.getExecutingMask().getSize()) + longestDependantPath;
+        }
+        priorities = pathCosts;
+    }
+
+    private long getPriority(int index) {
+        long[] pathCosts = priorities;
+        return index < pathCosts.length ? pathCosts[index] : 0;
+    }
+
+    public void stop() {
+        stagesDone.join();
+        pipeline.forEach(e -> e.getFuture().join());
+        hashFutures.forEach(CompletableFuture::join);
+        cacheWrites.forEach(CompletableFuture::join);
+        if (cache != null) {
+            cache.unpin(pinnedKeys);
+        }
+        System.out.println("pipeline stopped!");
+    }
+
+    /**
+     * Makes every entry and stage that has not started yet fail with a {@link CancellationException}, the ones
+     * already running finish
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    private void checkCancelled() {
+        if (cancelled) {
+            throw new CancellationException("Pipeline cancelled");
+        }
+    }
+
+    public boolean isStarted() {
+        return started.isDone();
+    }
+
+    /**
+     * Completes once the masks are done, without blocking a thread until then
+     */
+    public CompletableFuture<Void> whenDone(ConcurrentMask... masks) {
+        return CompletableFuture.allOf(getDependencyList(Arrays.asList(masks)).stream()
+                .map(Pipeline.Entry::getFuture)
+                .toArray(CompletableFuture<?>[]::new));
+    }
+
+    public void await(ConcurrentMask... masks) {
+        List<Pipeline.Entry> entries = getDependencyList(Arrays.asList(masks));
+        if (PipelineScheduler.isPipelineThread()) {
+            // waiting would hold a pipeline thread the awaited entries may need, possibly the only one
+            entries.stream().filter(e -> !e.getFuture().isDone()).findFirst().ifPresent(e -> {
+                throw new IllegalStateException(String.format("Mask %s is read on a pipeline thread before it is done, stages have to declare the masks they read", e.getExecutingMask().getName()));
+            });
+        }
+        entries.forEach(e -> e.getFuture().join());
+    }
+
+    /**
+     * Declares a stage that runs once the pipeline is started and the masks and stages it depends on are done. The
+     * stages it comes after have to be added before it.
+     */
+    public void addStage(PipelineStage stage) {
+        if (isStarted()) {
+            throw new IllegalStateException(String.format("Stage %s added after pipeline start", stage.getName()));
+        }
+        if (!stages.containsAll(stage.getPrerequisites())) {
+            throw new IllegalArgumentException(String.format("Stage %s added before the stages it comes after", stage.getName()));
+        }
+        stages.add(stage);
+        retainedMasks.addAll(stage.getMasks());
+    }
+
+    /**
+     * Completes once every stage has run
+     */
+    public CompletableFuture<Void> whenStagesDone() {
+        return stagesDone;
+    }
+
+    /**
+     * Chains every stage on its masks and prerequisites. Stages are prioritized like entries, by the estimated cost
+     * of the longest chain of stages from them to the end.
+     */
+    private void startStages() {
+        Map<PipelineStage, Long> pathCosts = new HashMap<>();
+        for (int i = stages.size() - 1; i >= 0; i--) {
+            PipelineStage stage = stages.get(i);
+            long longestDependantPath = stages.stream()
+                    .filter(s -> s.getPrerequisites().contains(stage))
+                    .mapToLong(pathCosts::get)
+                    .max().orElse(0);
+            pathCosts.put(stage, PipelineScheduler.getEstimatedCost(stage.getCostKey(), 0) + longestDependantPath);
+        }
+        Map<PipelineStage, CompletableFuture<Void>> stageFutures = new HashMap<>();
+        for (PipelineStage stage : stages) {
+            long priority = pathCosts.get(stage);
+            CompletableFuture<?>[] prerequisites = Stream.concat(
+                    Stream.of(whenDone(stage.getMasks().toArray(new ConcurrentMask[0]))),
+                    stage.getPrerequisites().stream().map(stageFutures::get)
+            ).toArray(CompletableFuture<?>[]::new);
+            stageFutures.put(stage, CompletableFuture.allOf(prerequisites).thenRunAsync(() -> runStage(stage), scheduler.getExecutor(() -> priority)));
+        }
+        stagesDone = CompletableFuture.allOf(stageFutures.values().toArray(new CompletableFuture<?>[0]));
+    }
+
+    private void runStage(PipelineStage stage) {
+        checkCancelled();
+        long startTime = System.nanoTime();
+        Pipeline.bind(this);
+        try {
+            stage.getAction().run();
+        } finally {
+            Pipeline.unbind();
+        }
+        long stageNanos = System.nanoTime() - startTime;
+        PipelineScheduler.recordCost(stage.getCostKey(), stageNanos);
+        if (MapGenerator.DEBUG) {
+            System.out.printf("Done: %4d ms, stage %s\n", stageNanos / 1000000, stage.getName());
+        }
+    }
+
+    /**
+     * Last entry of each required mask, masks without entries are left out
+     */
+    public List<Pipeline.Entry> getDependencyList(List<ConcurrentMask> requiredMasks) {
+        List<Pipeline.Entry> res = new ArrayList<>();
+        for (ConcurrentMask requiredMask : requiredMasks) {
+            Pipeline.Entry lastWriter = lastWriters.get(requiredMask);
+            if (lastWriter != null) {
+                res.add(lastWriter);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Returns a future that completes once all dependencies are met and returns their result
+     *
+     * @param dependencyList
+     * @return a list of the results, DO NOT MODIFY THOSE!, may be snapshots sharing storage with their mask
+     */
+    public CompletableFuture<List<ConcurrentMask>> getDependencyFuture(List<Pipeline.Entry> dependencyList, ConcurrentMask requestingMask) {
+        if (pipeline.isEmpty() || dependencyList.isEmpty()) {
+            return started;
+        }
+
+        CompletableFuture<?>[] futures = dependencyList.stream().map(Pipeline.Entry::getFuture).toArray(CompletableFuture<?>[]::new);
+
+        if (futures.length == 0) {
+            return started;
+        }
+
+        return CompletableFuture.allOf(futures)
+                .thenApply(aVoid ->
+                        dependencyList.stream()
+                                .map(e -> e.getResult(requestingMask))
+                                .collect(Collectors.toList())
+                );
+    }
+
+    public int getPipelineSize() {
+        return pipeline.size();
+    }
+
+    public void toFile(Path path) throws IOException {
+        Files.deleteIfExists(path);
+        File outFile = path.toFile();
+        boolean status = outFile.createNewFile();
+        FileOutputStream out = new FileOutputStream(outFile);
+        if (hashMode == HashMode.OFF) {
+            out.write("off, masks are only hashed with --debug, --verify-pipeline or --hash-mode\n".getBytes());
+        }
+        for (String s : hashArray) {
+            if (s != null) {
+                out.write(s.getBytes());
+            }
+        }
+        out.flush();
+        out.close();
+    }
+
+    /**
+     * Timeline of the entries so far, measured from the start of the pipeline
+     */
+    public PipelineTrace getTrace() {
+        return new PipelineTrace(new ArrayList<>(pipeline), startTime, scheduler.getThreadCount());
+    }
+
+    public String[] getHashArray() {
+        return hashArray;
+    }
+}
@@ -0,0 +1,137 @@
+package util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Runs pipeline entries on a dedicated pool of threads. Whenever a thread frees up it takes the ready entry with the
+ * longest estimated path from its start to the end of the pipeline, so the chain that bounds the generation time is
+ * never left waiting behind entries that have time to spare.
+ * <p>
+ * Path lengths are sums of estimated entry costs. The cost of an entry is the running average of the time it took in
+ * earlier generations in this JVM, or an estimate proportional to the mask area for entries that have not run yet.
+ */
+public strictfp class PipelineScheduler {
+    private static final long DEFAULT_COST_PER_CELL = 10;
+    private static final Map<String, Long> costHistory = new ConcurrentHashMap<>();
+    private static final AtomicInteger threadCount = new AtomicInteger();
+    private static final ThreadLocal<Boolean> pipelineThread = ThreadLocal.withInitial(() -> false);
+
+    private static PipelineScheduler defaultScheduler;
+    private static ExecutorService backgroundExecutor;
+
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong sequence = new AtomicLong();
+
+    public PipelineScheduler(int threads) {
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(() -> {
+                pipelineThread.set(true);
+                runnable.run();
+            }, "pipeline-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static synchronized PipelineScheduler getDefault() {
+        if (defaultScheduler == null) {
+            defaultScheduler = new PipelineScheduler(Runtime.getRuntime().availableProcessors());
+        }
+        return defaultScheduler;
+    }
+
+    /**
+     * Replaces the default scheduler, entries already queued on the old one still run
+     */
+    public static synchronized void setDefaultThreadCount(int threads) {
+        if (defaultScheduler != null && defaultScheduler.getThreadCount() == threads) {
+            return;
+        }
+        PipelineScheduler oldScheduler = defaultScheduler;
+        defaultScheduler = new PipelineScheduler(threads);
+        if (oldScheduler != null) {
+            oldScheduler.executor.shutdown();
+        }
+    }
+
+    /**
+     * Single low priority thread for the bookkeeping of the pipeline, like hashing masks for the regression file and
+     * writing the mask cache, apart from the pipeline threads
+     */
+    public static synchronized Executor getBackgroundExecutor() {
+        if (backgroundExecutor == null) {
+            backgroundExecutor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "pipeline-background");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            });
+        }
+        return backgroundExecutor;
+    }
+
+    /**
+     * Whether the current thread is one of the threads running pipeline entries and stages
+     */
+    public static boolean isPipelineThread() {
+        return pipelineThread.get();
+    }
+
+    public int getThreadCount() {
+        return executor.getMaximumPoolSize();
+    }
+
+    /**
+     * Executor for the task of one entry, priority is read when the task becomes ready to run
+     */
+    public Executor getExecutor(LongSupplier priority) {
+        return command -> executor.execute(new PrioritizedTask(command, priority.getAsLong(), sequence.getAndIncrement()));
+    }
+
+    /**
+     * Estimated time in nanoseconds of the entry with the given key
+     */
+    public static long getEstimatedCost(String key, int size) {
+        Long cost = costHistory.get(key);
+        return cost != null ? cost : (long) size * size * DEFAULT_COST_PER_CELL;
+    }
+
+    public static void recordCost(String key, long nanos) {
+        costHistory.merge(key, nanos, (oldCost, newCost) -> (oldCost * 3 + newCost) / 4);
+    }
+
+    private static class PrioritizedTask implements Runnable, Comparable<PrioritizedTask> {
+        private final Runnable command;
+        private final long priority;
+        private final long sequence;
+
+        private PrioritizedTask(Runnable command, long priority, long sequence) {
+            this.command = command;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            command.run();
+        }
+
+        @Override
+        public int compareTo(PrioritizedTask other) {
+            if (priority != other.priority) {
+                return Long.compare(other.priority, priority);
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+}
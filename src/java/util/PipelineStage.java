@@ -0,0 +1,48 @@
+package util;
+
+import map.ConcurrentMask;
+
+import java.util.List;
+
+/**
+ * Work that consumes the final state of pipeline masks, like placing resources or props on the map. A stage runs on
+ * the pipeline scheduler once the masks it declares and the stages it comes after are done, so it never waits on a
+ * mask while holding a pipeline thread. The masks it declares are retained after their last operation, and it must
+ * not read any other mask.
+ */
+public strictfp class PipelineStage {
+    private final String name;
+    private final List<ConcurrentMask> masks;
+    private final List<PipelineStage> prerequisites;
+    private final Runnable action;
+
+    public PipelineStage(String name, List<ConcurrentMask> masks, List<PipelineStage> prerequisites, Runnable action) {
+        this.name = name;
+        this.masks = masks;
+        this.prerequisites = prerequisites;
+        this.action = action;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<ConcurrentMask> getMasks() {
+        return masks;
+    }
+
+    public List<PipelineStage> getPrerequisites() {
+        return prerequisites;
+    }
+
+    public Runnable getAction() {
+        return action;
+    }
+
+    /**
+     * Identifies the stage in the scheduler's cost history
+     */
+    public String getCostKey() {
+        return "stage," + name;
+    }
+}
@@ -0,0 +1,134 @@
+package util;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Timeline of the entries of one pipeline run. It exports to the Chrome trace event format, which chrome://tracing
+ * and Perfetto open, with one row per pipeline thread. It also finds the chain of entries that actually bounded the
+ * run: going back from the last entry to finish, every entry's slowest dependency is the one it waited for.
+ */
+public strictfp class PipelineTrace {
+    private final List<Pipeline.Entry> entries;
+    private final long originTime;
+    private final int threadCount;
+
+    public PipelineTrace(List<Pipeline.Entry> entries, long originTime, int threadCount) {
+        this.entries = entries.stream().filter(e -> e.getTrace().getEndTime() != 0).collect(Collectors.toList());
+        this.originTime = originTime;
+        this.threadCount = threadCount;
+    }
+
+    public List<Pipeline.Entry> getCriticalPath() {
+        LinkedList<Pipeline.Entry> path = new LinkedList<>();
+        Pipeline.Entry entry = entries.stream().max(Comparator.comparingLong(e -> e.getTrace().getEndTime())).orElse(null);
+        while (entry != null) {
+            path.addFirst(entry);
+            entry = entry.getDependencies().stream()
+                    .filter(e -> e.getTrace().getEndTime() != 0)
+                    .max(Comparator.comparingLong(e -> e.getTrace().getEndTime()))
+                    .orElse(null);
+        }
+        return path;
+    }
+
+    public long getWallTime() {
+        return entries.stream().mapToLong(e -> e.getTrace().getEndTime()).max().orElse(originTime) - originTime;
+    }
+
+    public String getSummary() {
+        long wallTime = getWallTime();
+        long runTime = entries.stream().mapToLong(e -> e.getTrace().getRunTime()).sum();
+        long queueTime = entries.stream().mapToLong(e -> e.getTrace().getQueueTime()).sum();
+        long maxQueueTime = entries.stream().mapToLong(e -> e.getTrace().getQueueTime()).max().orElse(0);
+        List<Pipeline.Entry> criticalPath = getCriticalPath();
+        long pathRunTime = criticalPath.stream().mapToLong(e -> e.getTrace().getRunTime()).sum();
+        long pathQueueTime = criticalPath.stream().mapToLong(e -> e.getTrace().getQueueTime()).sum();
+
+        StringBuilder summary = new StringBuilder();
+        summary.append(String.format("Pipeline: %d entries, wall %d ms, run %d ms on %d threads (%.0f%% busy), queue wait %d ms total, %d ms max%n",
+                entries.size(), toMillis(wallTime), toMillis(runTime), threadCount,
+                wallTime > 0 ? 100. * runTime / ((double) wallTime * threadCount) : 0, toMillis(queueTime), toMillis(maxQueueTime)));
+        summary.append(String.format("Critical path: %d entries, run %d ms, queue wait %d ms%n",
+                criticalPath.size(), toMillis(pathRunTime), toMillis(pathQueueTime)));
+        for (Pipeline.Entry entry : criticalPath) {
+            Pipeline.Trace trace = entry.getTrace();
+            summary.append(String.format("  %6d ms run %6d ms wait  %s(%d)  %s%n",
+                    toMillis(trace.getRunTime()), toMillis(trace.getQueueTime()), trace.getMaskName(), entry.getIndex(), trace.getCallingLine()));
+        }
+        return summary.toString();
+    }
+
+    public JsonObject toChromeTrace() {
+        JsonArray events = new JsonArray();
+        Map<String, Integer> threadIds = new HashMap<>();
+        for (Pipeline.Entry entry : entries) {
+            Pipeline.Trace trace = entry.getTrace();
+            int threadId = threadIds.computeIfAbsent(trace.getThreadName(), name -> threadIds.size() + 1);
+
+            JsonObject args = new JsonObject();
+            args.addProperty("index", entry.getIndex());
+            args.addProperty("callingLine", trace.getCallingLine());
+            args.addProperty("callingMethod", trace.getCallingMethod());
+            args.addProperty("fusedOperations", entry.getFusedOperations().size());
+            args.addProperty("readyMs", toMillis(trace.getReadyTime() - originTime));
+            args.addProperty("queueWaitMs", trace.getQueueTime() / 1e6);
+            JsonArray dependencies = new JsonArray();
+            entry.getDependencies().forEach(d -> dependencies.add(d.getIndex()));
+            args.add("dependencies", dependencies);
+
+            JsonObject event = new JsonObject();
+            event.addProperty("name", String.format("%s(%d)", trace.getMaskName(), entry.getIndex()));
+            event.addProperty("cat", "pipeline");
+            event.addProperty("ph", "X");
+            event.addProperty("ts", toMicros(trace.getStartTime() - originTime));
+            event.addProperty("dur", toMicros(trace.getRunTime()));
+            event.addProperty("pid", 1);
+            event.addProperty("tid", threadId);
+            event.add("args", args);
+            events.add(event);
+        }
+        threadIds.forEach((name, threadId) -> {
+            JsonObject args = new JsonObject();
+            args.addProperty("name", name);
+            JsonObject event = new JsonObject();
+            event.addProperty("name", "thread_name");
+            event.addProperty("ph", "M");
+            event.addProperty("pid", 1);
+            event.addProperty("tid", threadId);
+            event.add("args", args);
+            events.add(event);
+        });
+
+        JsonObject chromeTrace = new JsonObject();
+        chromeTrace.add("traceEvents", events);
+        chromeTrace.addProperty("displayTimeUnit", "ms");
+        return chromeTrace;
+    }
+
+    public void writeChromeTrace(Path path) throws IOException {
+        FileWriter writer = new FileWriter(path.toFile());
+        writer.write(new Gson().toJson(toChromeTrace()));
+        writer.flush();
+        writer.close();
+    }
+
+    private static long toMillis(long nanos) {
+        return nanos / 1000000;
+    }
+
+    private static double toMicros(long nanos) {
+        return nanos / 1e3;
+    }
+}
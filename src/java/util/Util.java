@@ -4,6 +4,8 @@ import java.util.LinkedHashSet;
 
 public class Util {
 
+    private static final StackWalker STACK_WALKER = StackWalker.getInstance(StackWalker.Option.RETAIN_CLASS_REFERENCE);
+
     public static String getStackTraceLineInClass(Class<?> clazz) {
         return getStackTraceLineInClass(clazz.getCanonicalName());
     }
@@ -18,6 +20,30 @@ public class Util {
         return "not found";
     }
 
+    /**
+     * Line of the first frame of lineClass and method of the first frame of methodClass on the stack, as
+     * {@link #getStackTraceLineInClass} and {@link #getStackTraceMethod} give them. The stack is walked once and only
+     * until both are found, instead of filling in a whole stack trace for each.
+     */
+    public static String[] getCallSite(Class<?> lineClass, Class<?> methodClass) {
+        String[] callSite = new String[2];
+        STACK_WALKER.walk(frames -> frames.filter(frame -> {
+            if (callSite[0] == null && frame.getDeclaringClass() == lineClass) {
+                callSite[0] = frame.getFileName() + ".java:" + frame.getLineNumber();
+            }
+            if (callSite[1] == null && frame.getDeclaringClass() == methodClass) {
+                callSite[1] = frame.getMethodName();
+            }
+            return callSite[0] != null && callSite[1] != null;
+        }).findFirst());
+        for (int i = 0; i < callSite.length; i++) {
+            if (callSite[i] == null) {
+                callSite[i] = "not found";
+            }
+        }
+        return callSite;
+    }
+
     public static String getStackTraceMethod(Class<?> clazz) {
         return getStackTraceMethod(clazz.getCanonicalName());
     }
@@ -7,10 +7,10 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import util.FileUtils;
-import util.Pipeline;
 
 import java.nio.ByteBuffer;
 import java.nio.file.Paths;
+import java.util.Arrays;
 
 import static generator.MapGenerator.*;
 import static org.junit.Assert.*;
@@ -153,16 +153,22 @@ public class MapGeneratorTest {
 
     @Test
     public void TestDeterminism() {
-        instance.interpretArguments(keywordArgs);
+        // masks are only hashed when asked for
+        String[] args = Arrays.copyOf(keywordArgs, keywordArgs.length + 2);
+        args[keywordArgs.length] = "--hash-mode";
+        args[keywordArgs.length + 1] = "fast";
+        instance.interpretArguments(args);
         SCMap map1 = instance.generate();
-        String[] hashArray1 = Pipeline.hashArray.clone();
+        String[] hashArray1 = instance.getPipelineContext().getHashArray().clone();
+        assertTrue(hashArray1.length > 0);
+        for (String hash : hashArray1) {
+            assertNotNull(hash);
+        }
 
         for (int i = 0; i < 10; i++) {
-            Pipeline.reset();
-
-            instance.interpretArguments(keywordArgs);
+            instance.interpretArguments(args);
             SCMap map2 = instance.generate();
-            String[] hashArray2 = Pipeline.hashArray.clone();
+            String[] hashArray2 = instance.getPipelineContext().getHashArray().clone();
 
             assertArrayEquals(hashArray1, hashArray2);
             assertEquals(map1.toString(), map2.toString());
@@ -193,8 +199,6 @@ public class MapGeneratorTest {
         instance.interpretArguments(keywordArgs);
         SCMap map1 = instance.generate();
 
-        Pipeline.reset();
-
         String[] args = {folderPath, b32MapName};
         instance.interpretArguments(args);
         SCMap map2 = instance.generate();
@@ -226,8 +230,6 @@ public class MapGeneratorTest {
         instance.interpretArguments(args);
         SCMap map1 = instance.generate();
 
-        Pipeline.reset();
-
         args = new String[]{folderPath, b32MapName};
         instance.interpretArguments(args);
         SCMap map2 = instance.generate();
@@ -252,9 +254,25 @@ public class MapGeneratorTest {
         assertTrue(compareImages(map1.getTerrainType(), map2.getTerrainType()));
     }
 
+    @Test
+    public void TestCellRandomMapNameRoundTrip() {
+        String[] args = {"--seed", Long.toString(seed), "--map-size", Integer.toString(mapSize), "--cell-random"};
+        instance.interpretArguments(args);
+        assertTrue(instance.isCellRandom());
+        String mapName = instance.getMapName();
+
+        MapGenerator other = new MapGenerator();
+        other.interpretArguments(new String[]{"--map-name", mapName});
+        assertTrue(other.isCellRandom());
+        assertEquals(mapName, other.getMapName());
+
+        other = new MapGenerator();
+        other.interpretArguments(new String[]{"--map-name", b32MapName});
+        assertFalse(other.isCellRandom());
+    }
+
     @After
     public void cleanup() {
-        Pipeline.reset();
         FileUtils.deleteRecursiveIfExists(Paths.get(instance.getMapName()));
     }
 
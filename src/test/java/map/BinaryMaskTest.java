@@ -0,0 +1,190 @@
+package map;
+
+import org.junit.Before;
+import org.junit.Test;
+import util.Vector2f;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BinaryMaskTest {
+
+    private static final int SIZE = 131;
+
+    private SymmetryHierarchy symmetryHierarchy;
+    private boolean[][] reference;
+    private BinaryMask mask;
+
+    @Before
+    public void setup() {
+        symmetryHierarchy = new SymmetryHierarchy(Symmetry.POINT, Symmetry.X);
+        symmetryHierarchy.setSpawnSymmetry(Symmetry.POINT);
+        reference = new boolean[SIZE][SIZE];
+        mask = new BinaryMask(SIZE, 0L, symmetryHierarchy);
+        Random random = new Random(1234);
+        for (int x = 0; x < SIZE; x++) {
+            for (int y = 0; y < SIZE; y++) {
+                reference[x][y] = random.nextFloat() < .4f;
+                mask.set(x, y, reference[x][y]);
+            }
+        }
+    }
+
+    private void assertMatches(boolean[][] expected, BinaryMask actual) {
+        for (int x = 0; x < SIZE; x++) {
+            for (int y = 0; y < SIZE; y++) {
+                assertEquals(String.format("(%d, %d)", x, y), expected[x][y], actual.get(x, y));
+            }
+        }
+    }
+
+    private int count(boolean[][] values) {
+        int count = 0;
+        for (boolean[] row : values) {
+            for (boolean value : row) {
+                count += value ? 1 : 0;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void TestGetCount() {
+        assertEquals(count(reference), mask.getCount());
+    }
+
+    @Test
+    public void TestInvert() {
+        mask.invert();
+        boolean[][] expected = new boolean[SIZE][SIZE];
+        for (int x = 0; x < SIZE; x++) {
+            for (int y = 0; y < SIZE; y++) {
+                expected[x][y] = !reference[x][y];
+            }
+        }
+        assertMatches(expected, mask);
+        assertEquals(count(expected), mask.getCount());
+    }
+
+    @Test
+    public void TestOutline() {
+        BinaryMask outline = mask.copy().outline();
+        boolean[][] expected = new boolean[SIZE][SIZE];
+        for (int x = 0; x < SIZE; x++) {
+            for (int y = 0; y < SIZE; y++) {
+                expected[x][y] = mask.isEdge(x, y);
+            }
+        }
+        assertMatches(expected, outline);
+        assertEquals(count(expected), outline.getCount());
+    }
+
+    @Test
+    public void TestSetOperations() {
+        BinaryMask other = new BinaryMask(SIZE, 1L, symmetryHierarchy).randomize(.5f);
+        boolean[][] union = new boolean[SIZE][SIZE];
+        boolean[][] intersection = new boolean[SIZE][SIZE];
+        boolean[][] difference = new boolean[SIZE][SIZE];
+        for (int x = 0; x < SIZE; x++) {
+            for (int y = 0; y < SIZE; y++) {
+                union[x][y] = reference[x][y] || other.get(x, y);
+                intersection[x][y] = reference[x][y] && other.get(x, y);
+                difference[x][y] = reference[x][y] && !other.get(x, y);
+            }
+        }
+        assertMatches(union, mask.copy().combine(other));
+        assertMatches(intersection, mask.copy().intersect(other));
+        assertMatches(difference, mask.copy().minus(other));
+    }
+
+    private boolean[][] stampDisks(boolean value, float radius) {
+        boolean[][] stamped = new boolean[SIZE][SIZE];
+        float radius2 = (radius + 0.5f) * (radius + 0.5f);
+        for (int x = 0; x < SIZE; x++) {
+            for (int y = 0; y < SIZE; y++) {
+                if (mask.isEdge(x, y) && mask.get(x, y) == value) {
+                    for (int x2 = 0; x2 < SIZE; x2++) {
+                        for (int y2 = 0; y2 < SIZE; y2++) {
+                            if ((x - x2) * (x - x2) + (y - y2) * (y - y2) <= radius2) {
+                                stamped[x2][y2] = true;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return stamped;
+    }
+
+    @Test
+    public void TestInflate() {
+        for (float radius : new float[]{.5f, 1f, 2.5f, 8f}) {
+            boolean[][] stamped = stampDisks(true, radius);
+            boolean[][] expected = new boolean[SIZE][SIZE];
+            for (int x = 0; x < SIZE; x++) {
+                for (int y = 0; y < SIZE; y++) {
+                    expected[x][y] = reference[x][y] || stamped[x][y];
+                }
+            }
+            assertMatches(expected, mask.copy().inflate(radius));
+        }
+    }
+
+    @Test
+    public void TestDeflate() {
+        for (float radius : new float[]{.5f, 1f, 2.5f, 8f}) {
+            boolean[][] stamped = stampDisks(false, radius);
+            boolean[][] expected = new boolean[SIZE][SIZE];
+            for (int x = 0; x < SIZE; x++) {
+                for (int y = 0; y < SIZE; y++) {
+                    expected[x][y] = reference[x][y] && !stamped[x][y];
+                }
+            }
+            assertMatches(expected, mask.copy().deflate(radius));
+        }
+    }
+
+    @Test
+    public void TestSmooth() {
+        for (int radius : new int[]{0, 1, 4, 12, 200}) {
+            boolean[][] expected = new boolean[SIZE][SIZE];
+            for (int x = 0; x < SIZE; x++) {
+                for (int y = 0; y < SIZE; y++) {
+                    int count = 0;
+                    int area = 0;
+                    for (int i = StrictMath.max(0, x - radius); i <= StrictMath.min(SIZE - 1, x + radius); i++) {
+                        for (int j = StrictMath.max(0, y - radius); j <= StrictMath.min(SIZE - 1, y + radius); j++) {
+                            count += reference[i][j] ? 1 : 0;
+                            area++;
+                        }
+                    }
+                    expected[x][y] = count >= area * .4f;
+                }
+            }
+            assertMatches(expected, mask.copy().smooth(radius, .4f));
+        }
+    }
+
+    @Test
+    public void TestConnectedComponents() {
+        ConnectedComponents components = new ConnectedComponents(mask, true);
+        int area = 0;
+        for (int label = 1; label <= components.getComponentCount(); label++) {
+            area += components.getArea(label);
+            assertEquals(components.getArea(label), mask.getShapeCoordinates(new Vector2f(components.getFirstX(label), components.getFirstY(label))).size());
+        }
+        assertEquals(mask.getCount(), area);
+        for (int x = 0; x < SIZE; x++) {
+            for (int y = 0; y < SIZE; y++) {
+                assertEquals(reference[x][y], components.getLabel(x, y) != 0);
+                if (x > 0 && reference[x][y] && reference[x - 1][y]) {
+                    assertEquals(components.getLabel(x, y), components.getLabel(x - 1, y));
+                }
+                if (y > 0 && reference[x][y] && reference[x][y - 1]) {
+                    assertEquals(components.getLabel(x, y), components.getLabel(x, y - 1));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package map;
+
+import org.junit.After;
+import org.junit.Test;
+import util.ParallelUtils;
+import util.Pipeline;
+import util.PipelineContext;
+
+import static org.junit.Assert.*;
+
+public class CellRandomTest {
+
+    private static final int SIZE = 257;
+
+    private BinaryMask generate() {
+        SymmetryHierarchy symmetryHierarchy = new SymmetryHierarchy(Symmetry.POINT, Symmetry.X);
+        symmetryHierarchy.setSpawnSymmetry(Symmetry.POINT);
+        BinaryMask mask = new BinaryMask(SIZE, 1234L, symmetryHierarchy);
+        return mask.randomize(.4f).flipValues(.8f).grow(.5f).erode(.5f);
+    }
+
+    private void assertSameCells(BinaryMask expected, BinaryMask actual) {
+        for (int x = 0; x < SIZE; x++) {
+            for (int y = 0; y < SIZE; y++) {
+                assertEquals(String.format("(%d, %d)", x, y), expected.get(x, y), actual.get(x, y));
+            }
+        }
+    }
+
+    @After
+    public void cleanup() {
+        Pipeline.unbind();
+        ParallelUtils.setSerial(false);
+    }
+
+    @Test
+    public void TestEnabledByBoundContext() {
+        assertFalse(CellRandom.isEnabled());
+        PipelineContext context = new PipelineContext();
+        Pipeline.bind(context);
+        assertFalse(CellRandom.isEnabled());
+        context.setCellRandom(true);
+        assertTrue(CellRandom.isEnabled());
+        Pipeline.bind(new PipelineContext());
+        assertFalse(CellRandom.isEnabled());
+    }
+
+    @Test
+    public void TestDrawsIndependentOfThreadsAndBands() {
+        PipelineContext context = new PipelineContext();
+        context.setCellRandom(true);
+        Pipeline.bind(context);
+
+        ParallelUtils.setSerial(true);
+        BinaryMask serial = generate();
+        ParallelUtils.setSerial(false);
+        for (int parallelism : new int[]{2, 3, 4, 7}) {
+            // every parallelism splits the rows into differently sized bands
+            ParallelUtils.setParallelism(parallelism);
+            assertSameCells(serial, generate());
+        }
+    }
+}
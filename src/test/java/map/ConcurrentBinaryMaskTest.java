@@ -0,0 +1,92 @@
+package map;
+
+import org.junit.Test;
+import util.Pipeline;
+import util.PipelineContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+
+public class ConcurrentBinaryMaskTest {
+
+    private static ConcurrentBinaryMask createMask(String name) {
+        Pipeline.bind(new PipelineContext());
+        try {
+            ConcurrentBinaryMask mask = new ConcurrentBinaryMask(16, 1L, Symmetry.POINT, name);
+            mask.getBinaryMask().set(0, 0, true);
+            return mask;
+        } finally {
+            Pipeline.unbind();
+        }
+    }
+
+    /**
+     * Entry of mask with externalReaders readers besides its dependants, whose task has finished
+     */
+    private static Pipeline.Entry createFinishedEntry(ConcurrentBinaryMask mask, int externalReaders) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        Pipeline.Entry entry = new Pipeline.Entry(0, mask, List.of(), future, new ArrayList<>(), mask.getName(), externalReaders,
+                new Pipeline.Trace(mask.getName(), "", ""));
+        future.complete(null);
+        return entry;
+    }
+
+    @Test
+    public void TestOwnerDetachesFromPendingReader() {
+        ConcurrentBinaryMask mask = createMask("owner");
+        Pipeline.Entry entry = createFinishedEntry(mask, 1);
+        ConcurrentBinaryMask view = (ConcurrentBinaryMask) entry.acquireView();
+
+        // the owner's next task writes its mask while the reader still reads the entry's result
+        assertSame(mask, entry.getResult(mask));
+        mask.getBinaryMask().invert();
+        assertFalse(mask.getBinaryMask().get(0, 0));
+        assertTrue(view.getBinaryMask().get(0, 0));
+        assertFalse(view.getBinaryMask().get(1, 1));
+
+        entry.releaseView();
+        assertFalse(mask.getBinaryMask().get(0, 0));
+        assertTrue(mask.getBinaryMask().get(1, 1));
+    }
+
+    @Test
+    public void TestLastReaderReleasesStorage() {
+        ConcurrentBinaryMask mask = createMask("owner");
+        Pipeline.Entry entry = createFinishedEntry(mask, 2);
+        entry.acquireView();
+        ConcurrentBinaryMask secondView = (ConcurrentBinaryMask) entry.acquireView();
+        assertSame(mask, entry.getResult(mask));
+        mask.getBinaryMask().invert();
+
+        // the storage the owner detached from stays until its last reader is done, then goes back to the arena
+        long[] sharedStorage = secondView.getBinaryMask().getMask();
+        entry.releaseView();
+        assertTrue(secondView.getBinaryMask().get(0, 0));
+        long[] borrowed = ScratchArena.borrowLongs(sharedStorage.length);
+        assertNotSame(sharedStorage, borrowed);
+        ScratchArena.release(borrowed);
+
+        entry.releaseView();
+        borrowed = ScratchArena.borrowLongs(sharedStorage.length);
+        assertSame(sharedStorage, borrowed);
+        ScratchArena.release(borrowed);
+        assertFalse(mask.getBinaryMask().get(0, 0));
+        assertTrue(mask.getBinaryMask().get(1, 1));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void TestResultWithoutSnapshotThrows() {
+        ConcurrentBinaryMask mask = createMask("owner");
+        ConcurrentBinaryMask reader = createMask("reader");
+        Pipeline.Entry entry = createFinishedEntry(mask, 0);
+        entry.getResult(reader);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void TestCreatingWithoutBoundContextThrows() {
+        new ConcurrentBinaryMask(16, 1L, Symmetry.POINT, "unbound");
+    }
+}
@@ -0,0 +1,103 @@
+package map;
+
+import org.junit.Test;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MaskStatesTest {
+
+    private static final int SIZE = 37;
+
+    private static byte[] getState(BinaryMask mask) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            mask.writeState(out);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] getState(FloatMask mask) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            mask.writeState(out);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static DataInputStream getInput(byte[] state) {
+        return new DataInputStream(new ByteArrayInputStream(state));
+    }
+
+    @Test
+    public void TestBinaryMaskRoundTrip() throws IOException {
+        BinaryMask mask = new BinaryMask(SIZE, 1L, Symmetry.POINT);
+        Random values = new Random(2);
+        for (int x = 0; x < SIZE; x++) {
+            for (int y = 0; y < SIZE; y++) {
+                mask.set(x, y, values.nextBoolean());
+            }
+        }
+        mask.getRandom().nextLong();
+        byte[] state = getState(mask);
+
+        BinaryMask restored = new BinaryMask(1, 3L, Symmetry.POINT);
+        restored.readState(getInput(state));
+        assertEquals(SIZE, restored.getSize());
+        for (int x = 0; x < SIZE; x++) {
+            for (int y = 0; y < SIZE; y++) {
+                assertEquals(String.format("(%d, %d)", x, y), mask.get(x, y), restored.get(x, y));
+            }
+        }
+        assertEquals(mask.getRandom().nextLong(), restored.getRandom().nextLong());
+    }
+
+    @Test
+    public void TestFloatMaskRoundTrip() throws IOException {
+        FloatMask mask = new FloatMask(SIZE, 1L, new SymmetryHierarchy(Symmetry.POINT, Symmetry.X));
+        Random values = new Random(2);
+        for (int x = 0; x < SIZE; x++) {
+            for (int y = 0; y < SIZE; y++) {
+                mask.set(x, y, values.nextFloat());
+            }
+        }
+        mask.getRandom().nextGaussian();
+        byte[] state = getState(mask);
+
+        FloatMask restored = new FloatMask(1, 3L, new SymmetryHierarchy(Symmetry.POINT, Symmetry.X));
+        restored.readState(getInput(state));
+        assertEquals(SIZE, restored.getSize());
+        for (int x = 0; x < SIZE; x++) {
+            for (int y = 0; y < SIZE; y++) {
+                assertEquals(String.format("(%d, %d)", x, y), mask.get(x, y), restored.get(x, y), 0);
+            }
+        }
+        // the second gaussian of a pair is kept in the random's state
+        assertEquals(mask.getRandom().nextGaussian(), restored.getRandom().nextGaussian(), 0);
+    }
+
+    @Test
+    public void TestMaskWithoutRandomRoundTrip() throws IOException {
+        BinaryMask mask = new BinaryMask(SIZE, null, new SymmetryHierarchy(Symmetry.POINT, Symmetry.X));
+        BinaryMask restored = new BinaryMask(1, 3L, Symmetry.POINT);
+        restored.readState(getInput(getState(mask)));
+        assertNull(restored.getRandom());
+    }
+
+    @Test(expected = IOException.class)
+    public void TestRejectsOtherClassesThanRandom() throws IOException {
+        ByteArrayOutputStream objectBytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream objectOut = new ObjectOutputStream(objectBytes)) {
+            objectOut.writeObject(new ArrayList<>());
+        }
+        ByteArrayOutputStream state = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(state)) {
+            out.writeShort(objectBytes.size());
+            objectBytes.writeTo(out);
+        }
+        MaskStates.readRandom(getInput(state.toByteArray()));
+    }
+}
@@ -0,0 +1,50 @@
+package map;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class ScratchArenaTest {
+
+    @Test
+    public void TestReleasedBufferComesBackZeroed() {
+        long[] buffer = ScratchArena.borrowLongs(1000);
+        buffer[0] = 1;
+        buffer[999] = -1;
+        ScratchArena.release(buffer);
+        long[] reused = ScratchArena.borrowLongs(1000);
+        assertSame(buffer, reused);
+        assertEquals(0, reused[0]);
+        assertEquals(0, reused[999]);
+
+        float[] floats = ScratchArena.borrowFloats(1000);
+        floats[500] = 1;
+        ScratchArena.release(floats);
+        assertEquals(0, ScratchArena.borrowFloats(1000)[500], 0);
+    }
+
+    @Test
+    public void TestPoolStaysBounded() {
+        ScratchArena.release(ScratchArena.borrowFloats(1));
+        for (int i = 1; i <= 64; i++) {
+            // every length is a size class of its own, so only the byte bound limits the pool
+            ScratchArena.release(new float[1024 * 1024 + i]);
+            assertTrue(ScratchArena.getPooledBytes() <= 32L * 1024 * 1024);
+        }
+        assertTrue(ScratchArena.getPooledBytes() > 0);
+    }
+
+    @Test
+    public void TestReleaseOnlyThreadKeepsNothing() throws InterruptedException {
+        AtomicLong pooledBytes = new AtomicLong(-1);
+        Thread thread = new Thread(() -> {
+            ScratchArena.release(new long[1000]);
+            pooledBytes.set(ScratchArena.getPooledBytes());
+        });
+        thread.start();
+        thread.join();
+        assertEquals(0, pooledBytes.get());
+    }
+}
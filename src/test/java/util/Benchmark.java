@@ -0,0 +1,8 @@
+package util;
+
+/**
+ * Category of the tests that assert on timings, which depend on the machine and its load. They are left out of the
+ * test task and run with the benchmark task.
+ */
+public interface Benchmark {
+}
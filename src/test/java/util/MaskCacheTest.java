@@ -0,0 +1,76 @@
+package util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MaskCacheTest {
+
+    private static final int STATE_SIZE = 1000;
+
+    private Path directory;
+    private MaskCache cache;
+
+    @Before
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("maskCacheTest");
+        // random states do not deflate, so two fit and a third evicts one
+        cache = MaskCache.open(directory, STATE_SIZE * 5 / 2);
+    }
+
+    @After
+    public void cleanup() {
+        FileUtils.deleteRecursiveIfExists(directory);
+    }
+
+    private static byte[] getState(long seed) {
+        byte[] state = new byte[STATE_SIZE];
+        new Random(seed).nextBytes(state);
+        return state;
+    }
+
+    @Test
+    public void TestSharedPerDirectory() throws IOException {
+        assertSame(cache, MaskCache.open(directory.resolve(".").resolve("..").resolve(directory.getFileName()), 1));
+    }
+
+    @Test
+    public void TestEvictsLeastRecentlyUsed() throws IOException {
+        cache.put("a", getState(1));
+        cache.put("b", getState(2));
+        assertArrayEquals(getState(1), cache.get("a"));
+        cache.put("c", getState(3));
+        assertTrue(cache.contains("a"));
+        assertFalse(cache.contains("b"));
+        assertTrue(cache.contains("c"));
+        assertNull(cache.get("b"));
+        assertFalse(Files.exists(directory.resolve("b.mask")));
+        assertTrue(cache.getTotalBytes() <= STATE_SIZE * 5 / 2);
+    }
+
+    @Test
+    public void TestPinsAreCounted() throws IOException {
+        cache.put("a", getState(1));
+        cache.put("b", getState(2));
+        cache.pin(List.of("a"));
+        cache.pin(List.of("a"));
+        cache.unpin(List.of("a"));
+        cache.put("c", getState(3));
+        assertTrue(cache.contains("a"));
+        assertFalse(cache.contains("b"));
+
+        cache.unpin(List.of("a"));
+        cache.put("d", getState(4));
+        assertFalse(cache.contains("a"));
+        assertTrue(cache.contains("c"));
+        assertTrue(cache.contains("d"));
+    }
+}
@@ -0,0 +1,142 @@
+package util;
+
+import map.ConcurrentBinaryMask;
+import map.Symmetry;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PipelineContextTest {
+
+    private static final int MASK_COUNT = 8;
+
+    /**
+     * Builds a graph of entryCount entries that all read the same mask, written only at the start, and returns the
+     * build time per entry in nanoseconds. The context is never started, so no entry runs.
+     */
+    private double buildGraph(int entryCount) {
+        PipelineContext context = new PipelineContext();
+        context.setVerifying(true);
+        Pipeline.bind(context);
+        try {
+            long startTime = System.nanoTime();
+            ConcurrentBinaryMask[] masks = new ConcurrentBinaryMask[MASK_COUNT];
+            for (int i = 0; i < MASK_COUNT; i++) {
+                masks[i] = new ConcurrentBinaryMask(16, (long) i, Symmetry.POINT, "mask" + i);
+            }
+            for (int i = MASK_COUNT; i < entryCount; i++) {
+                masks[1 + i % (MASK_COUNT - 1)].combine(masks[0]);
+            }
+            long buildTime = System.nanoTime() - startTime;
+            assertEquals(entryCount, context.getPipelineSize());
+            return (double) buildTime / entryCount;
+        } finally {
+            Pipeline.unbind();
+        }
+    }
+
+    @Test
+    @Category(Benchmark.class)
+    public void TestBuildTimeStaysFlat() {
+        for (int i = 0; i < 5; i++) {
+            buildGraph(2000);
+        }
+        double smallGraphTime = Double.MAX_VALUE;
+        double largeGraphTime = Double.MAX_VALUE;
+        for (int i = 0; i < 3; i++) {
+            smallGraphTime = StrictMath.min(smallGraphTime, buildGraph(1000));
+            largeGraphTime = StrictMath.min(largeGraphTime, buildGraph(16000));
+        }
+        assertTrue(String.format("%.0f ns per entry grew to %.0f ns", smallGraphTime, largeGraphTime), largeGraphTime < smallGraphTime * 3);
+    }
+
+    /**
+     * Pipeline of a mask a that is inverted and then combined into a mask b, with the entries of b in their own cache
+     * scope. Returns the context after it ran, the entries are a, a.invert(), b and b.combine(a).
+     */
+    private PipelineContext runCachedPipeline(MaskCache cache, String scopeOfB) {
+        PipelineContext context = new PipelineContext();
+        context.setVerifying(true);
+        context.setCache(cache);
+        Pipeline.bind(context);
+        ConcurrentBinaryMask b;
+        try {
+            context.setCacheScope("a");
+            ConcurrentBinaryMask a = new ConcurrentBinaryMask(16, 1L, Symmetry.POINT, "a");
+            a.invert();
+            context.setCacheScope(scopeOfB);
+            b = new ConcurrentBinaryMask(16, 2L, Symmetry.POINT, "b");
+            b.combine(a);
+        } finally {
+            Pipeline.unbind();
+        }
+        context.addStage(new PipelineStage("stage", List.of(b), List.of(), () -> {
+        }));
+        context.start();
+        context.stop();
+        assertEquals(4, context.getPipelineSize());
+        assertEquals(16 * 16, b.getFinalMask().getCount());
+        return context;
+    }
+
+    @Test
+    public void TestPlanCacheRunsLoadsAndSkips() throws IOException {
+        Path directory = Files.createTempDirectory("planCacheTest");
+        try {
+            MaskCache cache = MaskCache.open(directory, 1024 * 1024);
+            PipelineContext context = runCachedPipeline(cache, "b");
+            for (int i = 0; i < 4; i++) {
+                assertEquals(PipelineContext.EntryMode.RUN, context.getEntryMode(i));
+            }
+
+            // the last entry of each mask is loaded, the others are skipped
+            context = runCachedPipeline(cache, "b");
+            assertEquals(PipelineContext.EntryMode.SKIP, context.getEntryMode(0));
+            assertEquals(PipelineContext.EntryMode.LOAD, context.getEntryMode(1));
+            assertEquals(PipelineContext.EntryMode.SKIP, context.getEntryMode(2));
+            assertEquals(PipelineContext.EntryMode.LOAD, context.getEntryMode(3));
+
+            // the entries of b run again and load the state of a they read
+            context = runCachedPipeline(cache, "other b");
+            assertEquals(PipelineContext.EntryMode.SKIP, context.getEntryMode(0));
+            assertEquals(PipelineContext.EntryMode.LOAD, context.getEntryMode(1));
+            assertEquals(PipelineContext.EntryMode.RUN, context.getEntryMode(2));
+            assertEquals(PipelineContext.EntryMode.RUN, context.getEntryMode(3));
+        } finally {
+            FileUtils.deleteRecursiveIfExists(directory);
+        }
+    }
+
+    @Test
+    public void TestPruningOnlyRunsEntriesStagesRead() {
+        PipelineContext context = new PipelineContext();
+        context.setPruning(true);
+        Pipeline.bind(context);
+        ConcurrentBinaryMask read;
+        ConcurrentBinaryMask unread;
+        try {
+            read = new ConcurrentBinaryMask(16, 1L, Symmetry.POINT, "read");
+            unread = new ConcurrentBinaryMask(16, 2L, Symmetry.POINT, "unread");
+            ConcurrentBinaryMask source = new ConcurrentBinaryMask(16, 3L, Symmetry.POINT, "source");
+            source.invert();
+            read.combine(source);
+            unread.combine(source);
+        } finally {
+            Pipeline.unbind();
+        }
+        context.addStage(new PipelineStage("stage", List.of(read), List.of(), () -> {
+        }));
+        context.retain(unread);
+        context.start();
+        context.stop();
+        assertEquals(16 * 16, read.getFinalMask().getCount());
+        assertEquals(0, unread.getFinalMask().getCount());
+    }
+}